@@ -0,0 +1,48 @@
+#!/bin/bash
+# Run JMH benchmarks, arguments are passed to JMH, e.g.
+#   ./bench.sh CopyBenchmark -p files=1000
+#   ./bench.sh -rf json -rff bench.json
+# or whole builds of a generated project, see --help of harness, e.g.
+#   ./bench.sh harness --classes 20000 --packages 200 --baseline baseline.properties
+# or checks of internals, e.g.
+#   ./bench.sh check
+
+JMH_VERSION=1.37
+MAVEN=https://repo1.maven.org/maven2
+LIB=build-bench/lib
+
+echo -e "Fetching JMH..."
+mkdir -p $LIB
+for jar in org/openjdk/jmh/jmh-core/$JMH_VERSION/jmh-core-$JMH_VERSION.jar \
+           org/openjdk/jmh/jmh-generator-annprocess/$JMH_VERSION/jmh-generator-annprocess-$JMH_VERSION.jar \
+           net/sf/jopt-simple/jopt-simple/5.0.4/jopt-simple-5.0.4.jar \
+           org/apache/commons/commons-math3/3.6.1/commons-math3-3.6.1.jar; do
+    if [ ! -f $LIB/$(basename $jar) ]; then
+        curl -sSfo $LIB/$(basename $jar) $MAVEN/$jar || exit 1
+    fi
+done
+CLASSPATH=$(echo $LIB/*.jar | tr ' ' ':')
+
+echo -e "Building..."
+rm -rf build-bench/classes
+mkdir -p build-bench/classes
+javac -encoding utf-8 \
+      -XDignore.symbol.file \
+      -cp "$CLASSPATH" \
+      -d build-bench/classes \
+      $(find src/java src/bench/java -name '*.java')
+
+if [ $? -ne 0 ]; then
+    echo -e "Build failed!"
+    exit 1
+fi
+
+echo -e "Running..."
+if [ "$1" == "harness" ]; then
+    shift
+    java -cp "build-bench/classes" tk.xhuoffice.psb4j.bench.BuildHarness "$@"
+elif [ "$1" == "check" ]; then
+    java -cp "build-bench/classes" tk.xhuoffice.psb4j.ParallelCompilerCheck
+else
+    java -cp "build-bench/classes:$CLASSPATH" org.openjdk.jmh.Main "$@"
+fi
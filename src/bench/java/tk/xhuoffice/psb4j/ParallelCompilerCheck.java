@@ -0,0 +1,113 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/**
+ * Checks how {@link ParallelCompiler} partitions sources into units. Lives
+ * in package of psb4j as {@link ParallelCompiler#units(List)} is not public.
+ * Run through {@code ./bench.sh check}, exits with {@code 1} on failure.
+ */
+public class ParallelCompilerCheck {
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        Path root = Files.createTempDirectory("psb4j-check");
+        try {
+            // wildcard import names the package itself
+            String x = source(root,"a/b/X.java","package a.b;\npublic class X {}\n");
+            String y = source(root,"c/Y.java","package c;\nimport a.b.*;\npublic class Y { X x; }\n");
+            check("wildcard import",ParallelCompiler.units(list(y,x)),"a.b","c");
+            // fully qualified reference, no import
+            String z = source(root,"d/Z.java","package d;\npublic class Z { a.b.X x = new a.b.X(); }\n");
+            check("qualified name",ParallelCompiler.units(list(z,x)),"a.b","d");
+            // static wildcard import names a class
+            String w = source(root,"e/W.java","package e;\nimport static a.b.X.*;\npublic class W {}\n");
+            check("static import",ParallelCompiler.units(list(w,x)),"a.b","e");
+        } finally {
+            List<Path> files;
+            try(Stream<Path> walk = Files.walk(root)) {
+                files = walk.collect(Collectors.toList());
+            }
+            Collections.reverse(files);
+            for(Path file : files) {
+                Files.delete(file);
+            }
+        }
+        System.out.println(failures==0 ? "All checks passed" : failures+" checks failed");
+        System.exit(failures==0 ? 0 : 1);
+    }
+
+    private static String source(Path root, String name, String code) throws IOException {
+        Path file = root.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file,code.getBytes(StandardCharsets.UTF_8));
+        return file.toString();
+    }
+
+    private static List<String> list(String... sources) {
+        List<String> list = new ArrayList<>();
+        for(String source : sources) {
+            list.add(source);
+        }
+        return list;
+    }
+
+    /**
+     * Check that upstream package gets a unit ordered before unit of
+     * downstream package, which depends on it.
+     */
+    private static void check(String name, List<ParallelCompiler.Unit> units, String upstream, String downstream) {
+        ParallelCompiler.Unit up = null;
+        ParallelCompiler.Unit down = null;
+        for(ParallelCompiler.Unit unit : units) {
+            if(unit.packages.contains(upstream)) {
+                up = unit;
+            }
+            if(unit.packages.contains(downstream)) {
+                down = unit;
+            }
+        }
+        boolean ok = up!=null && down!=null && up!=down && down.depends.contains(up)
+                     && units.indexOf(up)<units.indexOf(down);
+        if(!ok) {
+            failures++;
+        }
+        System.out.printf("%s: %s\n", name, ok ? "ok" : "FAILED");
+    }
+
+}
@@ -0,0 +1,261 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+
+/**
+ * Measures whole psb4j builds of a generated project. Every build runs in a
+ * new JVM through {@link BuildProbe}; three scenarios are measured:
+ * <ul>
+ * <li>{@code cold}: build directory removed</li>
+ * <li>{@code warm}: one class changed since last build</li>
+ * <li>{@code noop}: nothing changed since last build</li>
+ * </ul>
+ * The median of every metric is compared against a stored baseline, and a
+ * metric exceeding baseline by more than tolerance is a regression.
+ */
+public class BuildHarness {
+
+    private static final String[] SCENARIOS = {"cold", "warm", "noop"};
+    private static final String[] METRICS = {"wallMs", "cpuMs", "rssKb"};
+
+    private BuildHarness() {}
+
+    public static void main(String[] argv) throws IOException, InterruptedException {
+        List<String> args = new ArrayList<>(Arrays.asList(argv));
+        if(args.contains("--help")) {
+            System.out.print(
+                "    --packages       Number of packages (default 10)\n"+
+                "    --classes        Number of classes (default 1000)\n"+
+                "    --fanout         Classes referenced by every class (default 3)\n"+
+                "    --resources      Number of resource files (default 100)\n"+
+                "    --jars           Number of jars in lib/ (default 5)\n"+
+                "    --runs           Builds per scenario (default 3)\n"+
+                "    --dir            Where to generate project (default temporary)\n"+
+                "    --baseline       Baseline properties file\n"+
+                "    --save-baseline  Write results to baseline instead of comparing\n"+
+                "    --tolerance      Allowed slowdown before regression (default 0.2)\n"+
+                "    --jvm-args       Arguments of build JVMs, comma separated\n"
+            );
+            return;
+        }
+        int classes = Integer.parseInt(option(args,"--classes","1000"));
+        ProjectGenerator generator = new ProjectGenerator()
+            .packages(Integer.parseInt(option(args,"--packages","10")))
+            .classes(classes)
+            .fanout(Integer.parseInt(option(args,"--fanout","3")))
+            .resources(Integer.parseInt(option(args,"--resources","100")))
+            .jars(Integer.parseInt(option(args,"--jars","5")));
+        int runs = Integer.parseInt(option(args,"--runs","3"));
+        String dir = option(args,"--dir",null);
+        String baseline = option(args,"--baseline",null);
+        boolean save = args.remove("--save-baseline");
+        double tolerance = Double.parseDouble(option(args,"--tolerance","0.2"));
+        String jvmArgs = option(args,"--jvm-args","");
+        // generate
+        Path root = dir==null ? Files.createTempDirectory("psb4j-harness") : Paths.get(dir);
+        if(dir!=null) {
+            Fixtures.delete(root);
+            Files.createDirectories(root);
+        }
+        long start = System.currentTimeMillis();
+        generator.generate(root);
+        System.out.printf("Generated %d classes in %s (%dms)\n", classes, root, System.currentTimeMillis()-start);
+        // measure
+        Map<String,long[]> results = new LinkedHashMap<>();
+        int revision = 0;
+        for(String scenario : SCENARIOS) {
+            List<long[]> samples = new ArrayList<>();
+            for(int i = 0; i < runs; i++) {
+                switch(scenario) {
+                    case "cold":
+                        Fixtures.delete(root.resolve("build"));
+                        break;
+                    case "warm":
+                        generator.touch(root,classes/2,++revision);
+                        break;
+                    default:
+                        break;
+                }
+                long[] sample = build(root,jvmArgs);
+                System.out.printf("%-5s #%d: wall %6dms, cpu %6dms, rss %7dkB\n", scenario, i+1, sample[0], sample[1], sample[2]);
+                samples.add(sample);
+            }
+            results.put(scenario,median(samples));
+        }
+        if(dir==null) {
+            Fixtures.delete(root);
+        }
+        // report
+        System.out.println("================================================");
+        Properties props = new Properties();
+        for(Map.Entry<String,long[]> result : results.entrySet()) {
+            for(int m = 0; m < METRICS.length; m++) {
+                props.setProperty(result.getKey()+"."+METRICS[m],Long.toString(result.getValue()[m]));
+            }
+        }
+        if(baseline==null) {
+            print(props,null,tolerance);
+            return;
+        }
+        File file = new File(baseline);
+        if(save || !file.exists()) {
+            try(OutputStream out = Files.newOutputStream(file.toPath())) {
+                props.store(out,String.format("psb4j build baseline, %d classes", classes));
+            }
+            print(props,null,tolerance);
+            System.out.println("Baseline written to "+baseline);
+            return;
+        }
+        Properties base = new Properties();
+        try(InputStream in = Files.newInputStream(file.toPath())) {
+            base.load(in);
+        }
+        if(print(props,base,tolerance)>0) {
+            System.exit(1);
+        }
+    }
+
+    private static String option(List<String> args, String name, String def) {
+        int i = args.indexOf(name);
+        if(i<0) {
+            return def;
+        }
+        args.remove(i);
+        return args.remove(i);
+    }
+
+    /**
+     * Run one build of project in a new JVM.
+     * @return  Wall time, CPU time and peak RSS.
+     */
+    private static long[] build(Path root, String jvmArgs) throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(Paths.get(System.getProperty("java.home"),"bin","java").toString());
+        for(String arg : jvmArgs.split(",")) {
+            if(!arg.isEmpty()) {
+                cmd.add(arg);
+            }
+        }
+        cmd.add("-cp");
+        StringBuilder classpath = new StringBuilder();
+        for(String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classpath.append(new File(entry).getAbsolutePath()).append(File.pathSeparator);
+        }
+        cmd.add(classpath.toString());
+        cmd.add(BuildProbe.class.getName());
+        cmd.add(root.toString());
+        cmd.add("--jar");
+        cmd.add("build/project.jar");
+        Process process = new ProcessBuilder(cmd).directory(root.toFile()).redirectErrorStream(true).start();
+        String report = null;
+        StringBuilder log = new StringBuilder();
+        try(BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(),Charset.defaultCharset()))) {
+            String line;
+            while((line=in.readLine())!=null) {
+                if(line.startsWith(BuildProbe.PREFIX)) {
+                    report = line;
+                } else {
+                    log.append(line).append('\n');
+                }
+            }
+        }
+        process.waitFor();
+        if(report==null) {
+            System.out.print(log);
+            throw new IOException("Build JVM exit with code "+process.exitValue()+" without report");
+        }
+        String[] fields = report.split(" ");
+        if(!fields[1].equals("0")) {
+            System.out.print(log);
+            throw new IOException("Build failed with code "+fields[1]);
+        }
+        return new long[]{Long.parseLong(fields[2]),Long.parseLong(fields[3]),Long.parseLong(fields[4])};
+    }
+
+    private static long[] median(List<long[]> samples) {
+        long[] median = new long[METRICS.length];
+        for(int m = 0; m < METRICS.length; m++) {
+            List<Long> values = new ArrayList<>();
+            for(long[] sample : samples) {
+                values.add(sample[m]);
+            }
+            Collections.sort(values);
+            median[m] = values.get(values.size()/2);
+        }
+        return median;
+    }
+
+    /**
+     * Print results, compared with baseline if given.
+     * @return  Number of regressions.
+     */
+    private static int print(Properties results, Properties base, double tolerance) {
+        int regressions = 0;
+        System.out.printf("%-14s %10s %10s %8s\n", "metric", "median", "baseline", "change");
+        for(String scenario : SCENARIOS) {
+            for(String metric : METRICS) {
+                String key = scenario+"."+metric;
+                long value = Long.parseLong(results.getProperty(key));
+                String old = base==null ? null : base.getProperty(key);
+                if(old==null || value<0 || Long.parseLong(old)<=0) {
+                    System.out.printf("%-14s %10d %10s %8s\n", key, value, "-", "-");
+                    continue;
+                }
+                double change = (double)value/Long.parseLong(old)-1;
+                boolean regressed = change>tolerance;
+                if(regressed) {
+                    regressions++;
+                }
+                System.out.printf(Locale.ROOT, "%-14s %10d %10s %+7.1f%%%s\n", key, value, old, change*100, regressed ? "  REGRESSION" : "");
+            }
+        }
+        if(base!=null) {
+            System.out.println(regressions==0 ? "No regressions" : regressions+" regression(s)!");
+        }
+        return regressions;
+    }
+
+}
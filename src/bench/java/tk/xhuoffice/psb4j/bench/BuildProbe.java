@@ -0,0 +1,86 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j.bench;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import tk.xhuoffice.psb4j.Main;
+
+
+/**
+ * Runs one {@link Main} build in a fresh JVM and reports its cost on the
+ * last line of standard output, see {@link #PREFIX}.
+ */
+public class BuildProbe {
+
+    /**
+     * Prefix of report line, followed by exit code, wall time in
+     * milliseconds, process CPU time in milliseconds and peak resident set
+     * size in kilobytes ({@code -1} if unknown).
+     */
+    public static final String PREFIX = "PSB4J-PROBE";
+
+    private BuildProbe() {}
+
+    /**
+     * @param args  directory of project followed by psb4j arguments
+     */
+    public static void main(String[] args) {
+        String[] build = new String[args.length-1];
+        System.arraycopy(args,1,build,0,build.length);
+        long start = System.nanoTime();
+        int exitCode = Main.build(build,args[0]);
+        long wall = (System.nanoTime()-start)/1000000;
+        System.out.println(PREFIX+" "+exitCode+" "+wall+" "+cpuMillis()+" "+peakRssKb());
+        System.exit(exitCode);
+    }
+
+    private static long cpuMillis() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if(os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean)os).getProcessCpuTime()/1000000;
+        }
+        return -1;
+    }
+
+    private static long peakRssKb() {
+        try {
+            for(String line : Files.readAllLines(Paths.get("/proc/self/status"),StandardCharsets.UTF_8)) {
+                if(line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]",""));
+                }
+            }
+        } catch(IOException | NumberFormatException e) {
+            // not Linux
+        }
+        return -1;
+    }
+
+}
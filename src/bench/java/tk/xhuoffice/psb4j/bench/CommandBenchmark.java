@@ -0,0 +1,96 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tk.xhuoffice.psb4j.Command;
+
+
+/**
+ * Output pumping of {@link Command#run()}, measured with a child process
+ * writing a file of given size to its standard output. Requires {@code cat}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class CommandBenchmark {
+
+    @Param({"0", "1048576", "67108864"})
+    public int size;
+
+    @Param({"0", "65536"})
+    public int capture;
+
+    private Path dir;
+    private String file;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        this.dir = Files.createTempDirectory("psb4j-bench-cmd");
+        this.file = this.dir.resolve("output.txt").toString();
+        byte[] line = "Note: Some input files use unchecked or unsafe operations.\n".getBytes("UTF-8");
+        byte[] data = new byte[this.size];
+        for(int i = 0; i < data.length; i++) {
+            data[i] = line[i%line.length];
+        }
+        Files.write(this.dir.resolve("output.txt"),data);
+        Fixtures.quiet();
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        Fixtures.loud();
+        Fixtures.delete(this.dir);
+    }
+
+    @Benchmark
+    public int run() throws IOException {
+        Command command = new Command("cat",new String[]{"cat",this.file},this.dir.toString());
+        command.setCapture(this.capture);
+        command.run();
+        return command.getExitCode();
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j.bench;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tk.xhuoffice.psb4j.Downloader;
+
+
+/**
+ * {@link Downloader} throughput against an HTTP server in the same JVM on
+ * the loopback interface, so that network latency is left out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DownloadBenchmark {
+
+    @Param({"65536", "4194304", "67108864"})
+    public int size;
+
+    private HttpServer server;
+    private Path dir;
+    private String url;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        byte[] data = new byte[this.size];
+        new Random(this.size).nextBytes(data);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(),0),0);
+        this.server.createContext("/lib.jar", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type","application/java-archive");
+            exchange.sendResponseHeaders(200,data.length);
+            try(OutputStream out = exchange.getResponseBody()) {
+                out.write(data);
+            }
+        });
+        this.server.start();
+        this.url = "http://127.0.0.1:"+this.server.getAddress().getPort()+"/lib.jar";
+        this.dir = Files.createTempDirectory("psb4j-bench-dl");
+        Fixtures.quiet();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        Fixtures.loud();
+        this.server.stop(0);
+        Fixtures.delete(this.dir);
+    }
+
+    @TearDown(Level.Invocation)
+    public void clean() throws IOException {
+        Files.deleteIfExists(this.dir.resolve("lib.jar"));
+    }
+
+    @Benchmark
+    public File download() throws IOException, URISyntaxException {
+        Downloader downloader = new Downloader(this.url,this.dir.toString());
+        downloader.setProgressReport(false);
+        File file = downloader.download();
+        if(file==null) {
+            throw downloader.getError()!=null ? downloader.getError() : new IOException("Download failed");
+        }
+        return file;
+    }
+
+}
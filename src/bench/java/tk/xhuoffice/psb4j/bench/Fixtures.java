@@ -0,0 +1,116 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+
+/**
+ * Inputs shared by benchmarks.
+ */
+final class Fixtures {
+
+    private Fixtures() {}
+
+    /** Files per directory of generated trees. */
+    static final int FILES_PER_DIR = 100;
+
+    private static final PrintStream STDOUT = System.out;
+
+    /**
+     * Generate a tree of files with pseudo random content.
+     * @param root       root directory
+     * @param count      number of files
+     * @param size       size of each file in bytes
+     * @param extension  file name extension, e.g. {@code .java}
+     * @return           Root directory.
+     * @throws IOException  if an I/O error occurs.
+     */
+    static Path tree(Path root, int count, int size, String extension) throws IOException {
+        Random random = new Random(count*31L+size);
+        byte[] data = new byte[size];
+        for(int i = 0; i < count; i++) {
+            Path dir = root.resolve("d"+(i/FILES_PER_DIR));
+            if(i%FILES_PER_DIR==0) {
+                Files.createDirectories(dir);
+            }
+            random.nextBytes(data);
+            Files.write(dir.resolve("F"+i+extension),data);
+        }
+        return root;
+    }
+
+    /**
+     * Delete a file tree if it exists.
+     * @param root  root of tree
+     * @throws IOException  if an I/O error occurs.
+     */
+    static void delete(Path root) throws IOException {
+        if(root==null || !Files.exists(root)) {
+            return;
+        }
+        Files.walkFileTree(root,new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Discard console output of code under measurement.
+     */
+    static void quiet() {
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {}
+            @Override
+            public void write(byte[] b, int off, int len) {}
+        }));
+    }
+
+    /**
+     * Restore console output.
+     */
+    static void loud() {
+        System.setOut(STDOUT);
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import tk.xhuoffice.psb4j.Builder;
+
+
+/**
+ * {@link Builder#isZip(File)} over a library directory in which half of the
+ * files are archives.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IsZipBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int files;
+
+    private Path dir;
+    private File[] libs;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        this.dir = Files.createTempDirectory("psb4j-bench-zip");
+        this.libs = new File[this.files];
+        for(int i = 0; i < this.files; i++) {
+            Path lib = this.dir.resolve("lib"+i+(i%2==0 ? ".jar" : ".txt"));
+            if(i%2==0) {
+                try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(lib))) {
+                    out.putNextEntry(new ZipEntry("a/A.class"));
+                    out.write(new byte[512]);
+                    out.closeEntry();
+                }
+            } else {
+                Files.write(lib,new byte[512]);
+            }
+            this.libs[i] = lib.toFile();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        Fixtures.delete(this.dir);
+    }
+
+    @Benchmark
+    public void isZip(Blackhole bh) {
+        for(File lib : this.libs) {
+            bh.consume(Builder.isZip(lib));
+        }
+    }
+
+}
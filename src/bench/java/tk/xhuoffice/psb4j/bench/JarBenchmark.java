@@ -0,0 +1,100 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tk.xhuoffice.psb4j.JarWriter;
+
+
+/**
+ * Packaging of a build directory by {@link JarWriter}. Half of every file is
+ * zeros so that content is compressible like class files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class JarBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int files;
+
+    @Param({"1024", "65536"})
+    public int size;
+
+    private Path dir;
+    private File classes;
+    private File jar;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        this.dir = Files.createTempDirectory("psb4j-bench-jar");
+        this.classes = Fixtures.tree(this.dir.resolve("classes"),this.files,this.size,".class").toFile();
+        // make content compressible
+        byte[] half = new byte[this.size/2];
+        for(File sub : this.classes.listFiles()) {
+            for(File file : sub.listFiles()) {
+                byte[] data = Files.readAllBytes(file.toPath());
+                System.arraycopy(half,0,data,0,half.length);
+                Files.write(file.toPath(),data);
+            }
+        }
+        this.jar = this.dir.resolve("out.jar").toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        Fixtures.delete(this.dir);
+    }
+
+    @Benchmark
+    public File jar() throws IOException {
+        JarWriter writer = new JarWriter(this.jar);
+        writer.addDirectory(this.classes);
+        writer.write();
+        return this.jar;
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j.bench;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+
+/**
+ * Generates synthetic psb4j projects: {@code src/java} with classes spread
+ * over packages and depending on earlier classes, {@code src/resources},
+ * and {@code lib/} with jars.
+ */
+public class ProjectGenerator {
+
+    private int packages = 10;
+    private int classes = 1000;
+    private int fanout = 3;
+    private int resources = 100;
+    private int jars = 5;
+    private long seed = 1;
+
+    public ProjectGenerator packages(int packages) {
+        this.packages = Math.max(1,packages);
+        return this;
+    }
+
+    public ProjectGenerator classes(int classes) {
+        this.classes = Math.max(1,classes);
+        return this;
+    }
+
+    /**
+     * @param fanout  number of other classes referenced by every class
+     */
+    public ProjectGenerator fanout(int fanout) {
+        this.fanout = Math.max(0,fanout);
+        return this;
+    }
+
+    public ProjectGenerator resources(int resources) {
+        this.resources = Math.max(0,resources);
+        return this;
+    }
+
+    public ProjectGenerator jars(int jars) {
+        this.jars = Math.max(0,jars);
+        return this;
+    }
+
+    public ProjectGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Fully qualified name of a generated class.
+     * @param i  index of class
+     * @return   Class name.
+     */
+    public String className(int i) {
+        return "p"+(i%this.packages)+".C"+i;
+    }
+
+    /**
+     * Path of a generated source file relative to project root.
+     * @param i  index of class
+     * @return   Relative path.
+     */
+    public String sourcePath(int i) {
+        return "src/java/"+className(i).replace('.','/')+".java";
+    }
+
+    /**
+     * Write project.
+     * @param root  project root, should be empty
+     * @throws IOException  if an I/O error occurs.
+     */
+    public void generate(Path root) throws IOException {
+        Random random = new Random(this.seed);
+        for(int p = 0; p < Math.min(this.packages,this.classes); p++) {
+            Files.createDirectories(root.resolve("src/java/p"+p));
+        }
+        for(int i = 0; i < this.classes; i++) {
+            try(Writer out = Files.newBufferedWriter(root.resolve(sourcePath(i)),StandardCharsets.UTF_8)) {
+                out.write(source(i,random));
+            }
+        }
+        if(this.resources>0) {
+            Files.createDirectories(root.resolve("src/resources/assets"));
+        }
+        byte[] data = new byte[1024];
+        for(int i = 0; i < this.resources; i++) {
+            random.nextBytes(data);
+            Files.write(root.resolve("src/resources/assets/r"+i+".bin"),data);
+        }
+        if(this.jars>0) {
+            Files.createDirectories(root.resolve("lib"));
+        }
+        for(int i = 0; i < this.jars; i++) {
+            try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(root.resolve("lib/lib"+i+".jar")))) {
+                for(int j = 0; j < 100; j++) {
+                    random.nextBytes(data);
+                    out.putNextEntry(new ZipEntry("lib"+i+"/data"+j+".bin"));
+                    out.write(data);
+                    out.closeEntry();
+                }
+            }
+        }
+        Files.write(root.resolve("manifest"),"Main-Class: p0.C0\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Make a change to one class which does not alter its signature.
+     * @param root  project root
+     * @param i     index of class
+     * @param n     revision, written as a constant in method body
+     * @throws IOException  if an I/O error occurs.
+     */
+    public void touch(Path root, int i, int n) throws IOException {
+        Path file = root.resolve(sourcePath(i));
+        String src = new String(Files.readAllBytes(file),StandardCharsets.UTF_8);
+        src = src.replaceFirst("int revision = \\d+;","int revision = "+n+";");
+        Files.write(file,src.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String source(int i, Random random) {
+        String name = className(i);
+        StringBuilder sb = new StringBuilder();
+        sb.append("package ").append(name.substring(0,name.indexOf('.'))).append(";\n\n");
+        sb.append("public class C").append(i).append(" {\n\n");
+        sb.append("    private final int value;\n\n");
+        sb.append("    public C").append(i).append("(int value) {\n");
+        sb.append("        this.value = value;\n");
+        sb.append("    }\n\n");
+        sb.append("    public int value() {\n");
+        sb.append("        int revision = 0;\n");
+        sb.append("        int sum = this.value + revision;\n");
+        // depend on earlier classes only, so that there are no cycles
+        for(int d = 0; d < this.fanout && i > 0; d++) {
+            int dep = random.nextInt(i);
+            sb.append("        sum += new ").append(className(dep)).append("(").append(d).append(").value();\n");
+        }
+        sb.append("        return sum;\n");
+        sb.append("    }\n\n");
+        sb.append("    @Override\n");
+        sb.append("    public String toString() {\n");
+        sb.append("        return \"C").append(i).append("(\" + this.value + \")\";\n");
+        sb.append("    }\n\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,300 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Content-addressed local cache of downloaded artifacts. Artifacts are
+ * stored by SHA-256 under {@code sha256/<digest>/<file name>}, and a binary
+ * index maps each URL to the digest of its content, so that artifacts are
+ * shared safely by all projects on one machine.
+ * <p>
+ * An expected checksum can be appended to a URL as fragment, e.g.
+ * {@code https://example.com/a.jar#sha256=<hex>}.
+ */
+public class ArtifactCache {
+
+    private static final int MAGIC = 0x50534243; // PSBC
+    private static final String CHECKSUM_FRAGMENT = "#sha256=";
+
+    private final File root;
+    private final File indexFile;
+    private final Map<String,String> index = new HashMap<>();
+
+    public ArtifactCache(File root) {
+        this.root = root;
+        this.indexFile = new File(root,"urls.idx");
+        load(this.indexFile,this.index);
+    }
+
+    /**
+     * Get URL without expected checksum.
+     * @param spec  URL, optionally with {@code #sha256=} fragment
+     * @return      URL.
+     */
+    public static String url(String spec) {
+        int i = spec.indexOf(CHECKSUM_FRAGMENT);
+        return i<0 ? spec : spec.substring(0,i);
+    }
+
+    /**
+     * Get expected checksum of URL.
+     * @param spec  URL, optionally with {@code #sha256=} fragment
+     * @return      Lower case hex digest, or {@code null} if none.
+     */
+    public static String expected(String spec) {
+        int i = spec.indexOf(CHECKSUM_FRAGMENT);
+        return i<0 ? null : spec.substring(i+CHECKSUM_FRAGMENT.length()).toLowerCase();
+    }
+
+    /**
+     * Look up artifact of URL in cache.
+     * @param spec  URL, optionally with {@code #sha256=} fragment
+     * @param name  file name of artifact
+     * @return      Cached artifact, or {@code null} if not cached.
+     */
+    public synchronized File lookup(String spec, String name) {
+        String url = url(spec);
+        String expected = expected(spec);
+        String digest = this.index.get(url);
+        if(digest!=null && (expected==null || expected.equals(digest))) {
+            File file = blob(digest,name);
+            if(file.isFile()) {
+                return file;
+            }
+        }
+        if(expected!=null) {
+            // same content may have been fetched from another URL
+            File file = blob(expected,name);
+            if(file.isFile()) {
+                record(url,expected);
+                return file;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get directory where artifact of URL is downloaded to before being stored.
+     * A stable directory per URL allows interrupted downloads to be resumed.
+     * It must only be used while holding {@link #lockTemp(String)}.
+     * @param spec  URL
+     * @return      Temporary directory.
+     */
+    public File tempDir(String spec) {
+        return new File(this.root,"tmp/"+toHex(sha256(url(spec).getBytes(StandardCharsets.UTF_8))).substring(0,16));
+    }
+
+    // file locks are held per JVM, so threads of this JVM wait here first
+    private static final Map<String,ReentrantLock> TEMP_LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * Lock temporary directory of URL against other threads and processes
+     * sharing this cache, e.g. a daemon and a client building locally.
+     * @param spec  URL
+     * @return      Lock, to be closed once artifact is stored.
+     * @throws IOException  if an I/O error occurs.
+     */
+    public Closeable lockTemp(String spec) throws IOException {
+        File dir = tempDir(spec);
+        ReentrantLock local = TEMP_LOCKS.computeIfAbsent(dir.getAbsolutePath(),k -> new ReentrantLock());
+        local.lock();
+        RandomAccessFile lockFile = null;
+        try {
+            Downloader.checkParentDir(dir.getAbsolutePath());
+            lockFile = new RandomAccessFile(new File(dir.getPath()+".lock"),"rw");
+            FileLock lock = lockFile.getChannel().lock();
+            RandomAccessFile file = lockFile;
+            return () -> {
+                try {
+                    lock.release();
+                    file.close();
+                } finally {
+                    local.unlock();
+                }
+            };
+        } catch(IOException | RuntimeException e) {
+            if(lockFile!=null) {
+                lockFile.close();
+            }
+            local.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Move downloaded file into cache.
+     * @param spec    URL, optionally with {@code #sha256=} fragment
+     * @param file    downloaded file
+     * @param digest  SHA-256 of file as lower case hex
+     * @return        Cached artifact.
+     * @throws IOException  if checksum does not match or an I/O error occurs.
+     */
+    public File store(String spec, File file, String digest) throws IOException {
+        String expected = expected(spec);
+        if(expected!=null && !expected.equals(digest)) {
+            file.delete();
+            throw new IOException("Checksum mismatch for "+url(spec)+": expected "+expected+", got "+digest);
+        }
+        File blob = blob(digest,file.getName());
+        if(blob.isFile()) {
+            file.delete();
+        } else {
+            Downloader.checkParentDir(blob.getAbsolutePath());
+            Files.move(file.toPath(),blob.toPath(),StandardCopyOption.REPLACE_EXISTING);
+        }
+        record(url(spec),digest);
+        return blob;
+    }
+
+    private File blob(String digest, String name) {
+        return new File(this.root,"sha256/"+digest+"/"+name);
+    }
+
+    /**
+     * Add URL to index and write index, merging entries written by other processes.
+     */
+    private synchronized void record(String url, String digest) {
+        this.index.put(url,digest);
+        Downloader.checkParentDir(this.indexFile.getAbsolutePath());
+        // file locks are held per JVM, so serialize all caches in this JVM first
+        synchronized(ArtifactCache.class) {
+            recordLocked();
+        }
+    }
+
+    private void recordLocked() {
+        try(RandomAccessFile lockFile = new RandomAccessFile(new File(this.root,"urls.lock"),"rw")) {
+            FileLock lock = lockFile.getChannel().lock();
+            try {
+                writeMerged();
+            } finally {
+                lock.release();
+            }
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void writeMerged() throws IOException {
+        Map<String,String> merged = new HashMap<>();
+        load(this.indexFile,merged);
+        merged.putAll(this.index);
+        this.index.putAll(merged);
+        File tmp = new File(this.indexFile.getPath()+".tmp");
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(merged.size());
+            for(Map.Entry<String,String> e : merged.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue());
+            }
+        }
+        Files.move(tmp.toPath(),this.indexFile.toPath(),StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void load(File file, Map<String,String> index) {
+        if(!file.isFile()) {
+            return;
+        }
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if(in.readInt()!=MAGIC) {
+                return;
+            }
+            int count = in.readInt();
+            for(int i = 0; i < count; i++) {
+                index.put(in.readUTF(),in.readUTF());
+            }
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Calculate SHA-256 of file content.
+     * @param file  file
+     * @return      Lower case hex digest.
+     * @throws IOException  if an I/O error occurs.
+     */
+    public static String sha256(File file) throws IOException {
+        MessageDigest md = newDigest();
+        updateDigest(md,file);
+        return toHex(md.digest());
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void updateDigest(MessageDigest md, File file) throws IOException {
+        try(FileInputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int len;
+            while((len=in.read(buffer))!=-1) {
+                md.update(buffer,0,len);
+            }
+        }
+    }
+
+    private static byte[] sha256(byte[] data) {
+        return newDigest().digest(data);
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length*2);
+        for(byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF,16));
+            sb.append(Character.forDigit(b & 0xF,16));
+        }
+        return sb.toString();
+    }
+
+}
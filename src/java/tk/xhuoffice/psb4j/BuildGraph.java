@@ -0,0 +1,129 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Runs build tasks concurrently as their dependencies allow. A task starts
+ * once all tasks it depends on succeeded, and is skipped if any of them
+ * failed. Every task runs as a {@link Profiler} phase of the same name.
+ */
+public class BuildGraph {
+
+    private final Map<String,CompletableFuture<Boolean>> tasks = new LinkedHashMap<>();
+    private final ExecutorService pool;
+
+    public BuildGraph() {
+        this.pool = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r,"BuildTask");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Add a task.
+     * @param name   name of task
+     * @param task   task, returning {@code true} on success
+     * @param after  names of tasks, added before, that this task depends on
+     * @throws IllegalArgumentException  if a dependency has not been added.
+     */
+    public void add(String name, Callable<Boolean> task, String... after) {
+        List<CompletableFuture<Boolean>> depends = new ArrayList<>();
+        for(String depend : after) {
+            CompletableFuture<Boolean> future = this.tasks.get(depend);
+            if(future==null) {
+                throw new IllegalArgumentException("Unknown task "+depend);
+            }
+            depends.add(future);
+        }
+        CompletableFuture<Boolean> future = CompletableFuture.allOf(depends.toArray(new CompletableFuture<?>[0]))
+            .thenApplyAsync(v -> {
+                for(CompletableFuture<Boolean> depend : depends) {
+                    if(!depend.join()) {
+                        return false;
+                    }
+                }
+                return run(name,task);
+            },this.pool);
+        this.tasks.put(name,future);
+    }
+
+    private static boolean run(String name, Callable<Boolean> task) {
+        Thread.currentThread().setName("BuildTask-"+name);
+        try(Profiler.Span span = Profiler.phase(name)) {
+            boolean ok = task.call();
+            span.arg("ok",ok);
+            return ok;
+        } catch(Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            Thread.currentThread().setName("BuildTask");
+        }
+    }
+
+    /**
+     * Wait for all tasks.
+     * @return  {@code true} if all tasks succeeded.
+     * @throws InterruptedException  if interrupted while waiting.
+     */
+    public boolean await() throws InterruptedException {
+        boolean ok = true;
+        try {
+            for(CompletableFuture<Boolean> future : this.tasks.values()) {
+                ok &= future.get();
+            }
+        } catch(ExecutionException e) {
+            // tasks catch their own exceptions
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            this.pool.shutdown();
+        }
+        return ok;
+    }
+
+    /**
+     * Check whether a task succeeded, only meaningful after {@link #await()}.
+     * @param name  name of task
+     * @return      {@code true} if task succeeded.
+     */
+    public boolean succeeded(String name) {
+        CompletableFuture<Boolean> future = this.tasks.get(name);
+        return future!=null && future.isDone() && future.join();
+    }
+
+}
@@ -25,20 +25,49 @@
 
 package tk.xhuoffice.psb4j;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
  
 
 public class Builder {
 
+    /**
+     * Directory in build directory keeping psb4j metadata, never packed into JAR.
+     */
+    public static final String INDEX_DIR = ".psb4j";
+
     String buildpath;
     File sourcepath;
     String pwd;
@@ -52,40 +81,62 @@ public class Builder {
         this.pwd = pwd;
     }
 
+    private final List<File> libraries = new ArrayList<>();
+
+    /**
+     * Add libraries to classpath, e.g. files from artifact cache.
+     * @param libraries  library files
+     */
+    public void addLibraries(List<File> libraries) {
+        this.libraries.addAll(libraries);
+    }
+
+    private final List<File> modules = new ArrayList<>();
+
+    /**
+     * Add build directories of upstream modules to classpath. Unlike
+     * libraries their content changes between builds, so their source index
+     * is part of the fingerprint of incremental compilation.
+     * @param buildDirs  build directories of upstream modules
+     */
+    public void addModules(List<File> buildDirs) {
+        this.modules.addAll(buildDirs);
+    }
+
+    private String classPathStamp = "";
+
     private List<String> addClassPath(List<String> cmdargs) {
         cmdargs.add("-cp");
         List<String> cp = new ArrayList<>();
         // base cp
         cp.add(this.pwd);
         cp.add(this.sourcepath.getAbsolutePath());
-        cp.add(this.buildpath);
+        if(!this.inMemory) {
+            cp.add(resolve(this.buildpath));
+        }
         // public lib
-        File[] ls;
-        if((ls=new File(System.getProperty("user.home")+"/.sessx/lib/").listFiles())!=null) {
-            for(File file : ls) {
-                if(file.isFile() && isZip(file)) {
-                    // add
-                    try {
-                        cp.add(file.getCanonicalPath());
-                    } catch(IOException e) {
-                        cp.add(file.getAbsolutePath());
-                    }
-                }
+        ClassPathCache cache = ClassPathCache.load(new File(resolve(this.buildpath),INDEX_DIR+"/classpath.idx"));
+        cp.addAll(cache.resolve(new File(System.getProperty("user.home")+"/.sessx/lib/")));
+        // remote lib
+        for(File file : this.libraries) {
+            cp.add(file.getAbsolutePath());
+        }
+        // upstream modules
+        StringBuilder stamp = new StringBuilder();
+        for(File dir : this.modules) {
+            cp.add(dir.getAbsolutePath());
+            File index = new File(dir,INDEX_DIR+"/sources.idx");
+            if(index.isFile()) {
+                stamp.append(ArtifactCache.toHex(SourceIndex.hash(index)));
             }
+            stamp.append(':');
         }
         // work dir lib
-        if((ls=new File(this.pwd+"/lib").listFiles())!=null) {
-            for(File file : ls) {
-                if(file.isFile() && isZip(file)) {
-                    // add
-                    try {
-                        cp.add(file.getCanonicalPath());
-                    } catch(IOException e) {
-                        cp.add(file.getAbsolutePath());
-                    }
-                }
-            }
+        cp.addAll(cache.resolve(new File(this.pwd+"/lib")));
+        if(!this.inMemory) {
+            cache.save();
         }
+        this.classPathStamp = cache.stamp()+stamp;
         // add to cmdargs
         StringBuilder classpathstr = new StringBuilder();
         boolean isWindows = System.getProperty("os.name").toLowerCase().contains("windows");
@@ -98,9 +149,48 @@ public class Builder {
             }
         }
         cmdargs.add(classpathstr.deleteCharAt(classpathstr.length()-1).toString());
+        this.classPath = cp;
         return cmdargs;
     }
 
+    private List<String> classPath = new ArrayList<>();
+
+    /**
+     * Compile test sources against build directory and run them through
+     * {@link TestRunner}. Test classes are compiled incrementally into
+     * {@code .psb4j/test-classes} of build directory, which is never packed
+     * into JAR, and are compiled again whenever build directory changed.
+     * @param testSourcepath  where to find .java code of tests
+     * @param workers         max number of JVMs running tests
+     * @return                {@code 0} if all tests passed, otherwise {@code 1}.
+     */
+    public int test(String testSourcepath, int workers) {
+        if(this.inMemory) {
+            System.err.println("Tests need build directory, not supported with --in-memory");
+            return 1;
+        }
+        File testpath = new File(resolve(this.buildpath),INDEX_DIR+"/test-classes");
+        Builder tests = new Builder(testpath.getPath(),resolve(testSourcepath),this.pwd);
+        tests.addLibraries(this.libraries);
+        // main classes are found like those of an upstream module
+        List<File> upstream = new ArrayList<>();
+        upstream.add(new File(resolve(this.buildpath)));
+        upstream.addAll(this.modules);
+        tests.addModules(upstream);
+        tests.setParallel(this.parallel);
+        int exitCode;
+        try(Profiler.Span span = Profiler.begin("test","compile")) {
+            exitCode = tests.javac();
+            span.arg("exitCode",exitCode);
+        }
+        if(exitCode!=0) {
+            return exitCode;
+        }
+        TestRunner runner = new TestRunner(testpath,tests.classPath,
+                                           new File(resolve(this.buildpath),INDEX_DIR+"/test-timings.properties"),workers);
+        return runner.run() ? 0 : 1;
+    }
+
     /**
      * Detect if file is {@code ZIP} archive through file header.
      * @param file  file
@@ -121,24 +211,24 @@ public class Builder {
         }
     }
 
-    private List<String> addSources(File sourcepath, List<String> cmdargs) {
-        File[] ls = sourcepath.listFiles();
-        if(ls==null) {
-            return cmdargs;
-        }
-        for(File file : ls) {
-            if(file.isDirectory()) {
-                cmdargs = addSources(file,cmdargs);
-            }
-            if(file.isFile()) {
-                try {
-                    cmdargs.add(file.getCanonicalPath());
-                } catch(IOException e) {
-                    cmdargs.add(file.getAbsolutePath());
-                }
-            }
-        }
-        return cmdargs;
+    private String[] includes = new String[0];
+    private String[] excludes = new String[0];
+
+    /**
+     * Set glob patterns of sources to be compiled, relative to source path.
+     * @param includes  patterns of included sources, all if empty
+     * @param excludes  patterns of excluded sources
+     */
+    public void setSourceFilter(String[] includes, String[] excludes) {
+        this.includes = includes;
+        this.excludes = excludes;
+    }
+
+    private List<SourceScanner.Source> scanSources() {
+        SourceScanner scanner = new SourceScanner(this.sourcepath);
+        scanner.setIncludes(this.includes);
+        scanner.setExcludes(this.excludes);
+        return scanner.scan();
     }
 
     public static void rm(String path) {
@@ -161,40 +251,266 @@ public class Builder {
     }
 
     /**
-     * Run command {@code javac}.
-     * @return  Exit code of command {@code javac}.
+     * Resolve path against work directory, as forked commands do.
+     * @param path  path
+     * @return      Absolute path.
+     */
+    private String resolve(String path) {
+        File file = new File(path);
+        if(!file.isAbsolute()) {
+            file = new File(this.pwd, path);
+        }
+        return file.getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    private boolean inMemory = false;
+    private Map<String,byte[]> classes = null;
+
+    /**
+     * Compile to memory and pack compiled classes with resources straight
+     * into JAR by {@link #jarInMemory(String,String,String[],String[])},
+     * so that nothing but the JAR is written. Every build compiles all
+     * sources. Requires the system Java compiler in current JVM.
+     * @param inMemory  whether to build in memory
+     */
+    public void setInMemory(boolean inMemory) {
+        if(inMemory && !CompileEngine.isAvailable()) {
+            System.err.println("No system Java compiler available, building in "+this.buildpath);
+            return;
+        }
+        this.inMemory = inMemory;
+    }
+
+    /**
+     * Check whether building in memory.
+     * @return Result.
+     */
+    public boolean isInMemory() {
+        return this.inMemory;
+    }
+
+    /**
+     * Compile sources with the system Java compiler in current JVM,
+     * or with command {@code javac} if current runtime ships no compiler.
+     * @return  Exit code of compiler.
      */
     public int javac() {
+        if(this.inMemory) {
+            return javacInMemory();
+        }
         // base args
         new File(this.buildpath).mkdirs();
         String[] baseargs = new String[]{
-            "javac",
             "-encoding","UTF-8",
             "-Xlint:deprecation","-XDignore.symbol.file","-Xdiags:verbose",
-            "-d",buildpath,
+            "-d",resolve(buildpath),
             "-sourcepath",this.sourcepath.getAbsolutePath()
         };
-        List<String> cmdargs = new ArrayList<>();
+        List<String> options = new ArrayList<>();
         for(String arg : baseargs) {
-            cmdargs.add(arg);
+            options.add(arg);
         }
         // other args
-        cmdargs = addSources(this.sourcepath,cmdargs);
-        cmdargs = addClassPath(cmdargs);
-        // new command
-        Command javac = new Command("javac",cmdargs.toArray(new String[0]),this.pwd);
+        Profiler.Span classpathSpan = Profiler.begin("javac","classpath");
+        try {
+            options = addClassPath(options);
+        } finally {
+            classpathSpan.close();
+        }
+        List<SourceScanner.Source> sources;
+        try(Profiler.Span span = Profiler.begin("javac","scan sources")) {
+            sources = scanSources();
+            span.arg("sources",sources.size());
+        }
+        // incremental
+        StringBuilder fingerprint = new StringBuilder();
+        for(String option : options) {
+            fingerprint.append(option).append('\0');
+        }
+        fingerprint.append(this.classPathStamp);
+        SourceIndex index;
+        List<String> compile;
+        try(Profiler.Span span = Profiler.begin("javac","index update")) {
+            index = SourceIndex.load(new File(resolve(this.buildpath),INDEX_DIR+"/sources.idx"),
+                                     new File(resolve(this.buildpath)),fingerprint.toString());
+            compile = index.update(sources);
+            span.arg("stale",compile.size());
+        }
+        Profiler.count("javac.sources",compile.size());
+        if(compile.isEmpty()) {
+            index.save();
+            Main.printDividingLine();
+            System.out.println("所有源文件均为最新, 跳过编译");
+            return 0;
+        }
+        // compile
+        int exitCode;
+        try(Profiler.Span span = Profiler.begin("javac","compile")) {
+            if(CompileEngine.isAvailable() && this.parallel && compile.size()>1) {
+                exitCode = javacParallel(options,compile);
+            } else if(CompileEngine.isAvailable()) {
+                exitCode = javacInProcess(options,compile);
+            } else {
+                exitCode = javacForked(options,compile);
+            }
+            span.arg("sources",compile.size()).arg("exitCode",exitCode);
+        }
+        Profiler.Span recordSpan = Profiler.begin("javac","index record");
+        try {
+            if(exitCode==0) {
+                index.record(compile,this.sourcepath);
+            }
+            index.save();
+        } finally {
+            recordSpan.close();
+        }
+        return exitCode;
+    }
+
+    private int javacInMemory() {
+        List<String> options = new ArrayList<>(Arrays.asList(
+            "-encoding","UTF-8",
+            "-Xlint:deprecation","-XDignore.symbol.file","-Xdiags:verbose",
+            "-sourcepath",this.sourcepath.getAbsolutePath()
+        ));
+        Profiler.Span classpathSpan = Profiler.begin("javac","classpath");
+        try {
+            options = addClassPath(options);
+        } finally {
+            classpathSpan.close();
+        }
+        List<String> compile = new ArrayList<>();
+        try(Profiler.Span span = Profiler.begin("javac","scan sources")) {
+            for(SourceScanner.Source source : scanSources()) {
+                compile.add(source.path);
+            }
+            span.arg("sources",compile.size());
+        }
+        Profiler.count("javac.sources",compile.size());
+        CompileEngine javac = new CompileEngine(options.toArray(new String[0]),compile.toArray(new String[0]));
+        javac.setOutputInMemory(true);
+        try(Profiler.Span span = Profiler.begin("javac","compile")) {
+            Main.printDividingLine();
+            System.out.print(javac.status());
+            Main.printDividingLine();
+            javac.run();
+            Main.printDividingLine();
+            System.out.print(javac.status());
+            span.arg("sources",compile.size()).arg("exitCode",javac.getExitCode());
+        }
+        this.classes = javac.getExitCode()==0 ? javac.getOutputs() : null;
+        return javac.getExitCode();
+    }
+
+    private boolean parallel = false;
+
+    /**
+     * Compile independent packages on several compilers at the same time,
+     * see {@link ParallelCompiler}. Only used with compiler in current JVM.
+     * @param parallel  whether to compile in parallel
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    private int javacParallel(List<String> options, List<String> sources) {
+        // classes of other units are found in output directory only
+        List<String> unitOptions = new ArrayList<>(options);
+        unitOptions.set(unitOptions.indexOf("-sourcepath")+1,"");
+        unitOptions.add("-implicit:none");
+        ParallelCompiler javac = new ParallelCompiler(unitOptions.toArray(new String[0]),Runtime.getRuntime().availableProcessors());
+        if(javac.compile(sources)) {
+            System.out.println("并行编译完成");
+            return 0;
+        }
+        System.out.println("并行编译失败, 改为完整编译");
+        return javacInProcess(options,sources);
+    }
+
+    private int javacInProcess(List<String> options, List<String> sources) {
+        CompileEngine javac = new CompileEngine(options.toArray(new String[0]),sources.toArray(new String[0]));
         // run
         Main.printDividingLine();
         System.out.print(javac.status());
         Main.printDividingLine();
+        javac.run();
+        Main.printDividingLine();
+        System.out.print(javac.status());
+        return javac.getExitCode();
+    }
+
+    /**
+     * Max number of sources compiled by one forked {@code javac}. Larger
+     * source sets are compiled in batches, later batches seeing classes of
+     * earlier ones through classpath.
+     */
+    static final int JAVAC_BATCH = 20000;
+
+    /**
+     * Run command {@code javac}. Options and sources are passed in
+     * {@code @argfiles} so that command line stays within OS limits.
+     * @return  Exit code of command {@code javac}.
+     */
+    private int javacForked(List<String> options, List<String> sources) {
+        File dir = new File(resolve(this.buildpath),INDEX_DIR);
+        dir.mkdirs();
+        File optionsFile = new File(dir,"javac-options.args");
         try {
-            javac.run();
+            writeArgFile(optionsFile,options);
         } catch(IOException e) {
             e.printStackTrace();
+            return 1;
+        }
+        for(int from = 0; from < sources.size(); from += JAVAC_BATCH) {
+            List<String> batch = sources.subList(from,Math.min(sources.size(),from+JAVAC_BATCH));
+            File sourcesFile = new File(dir,"javac-sources.args");
+            try {
+                writeArgFile(sourcesFile,batch);
+            } catch(IOException e) {
+                e.printStackTrace();
+                return 1;
+            }
+            String[] cmdargs = new String[]{
+                "javac","@"+optionsFile.getPath(),"@"+sourcesFile.getPath()
+            };
+            // new command
+            Command javac = new Command("javac",cmdargs,this.pwd);
+            // run
+            Main.printDividingLine();
+            System.out.print(javac.status());
+            System.out.printf("Sources: %d\n", batch.size());
+            Main.printDividingLine();
+            try {
+                javac.run();
+            } catch(IOException e) {
+                e.printStackTrace();
+            }
+            Main.printDividingLine();
+            System.out.print(javac.status());
+            if(javac.getExitCode()!=0) {
+                return javac.getExitCode();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Write arguments to a {@code javac} argument file, each argument quoted.
+     * Written in the platform default charset, which is how {@code javac}
+     * reads argument files, so that non-ASCII paths survive.
+     * @param file  argument file
+     * @param args  arguments
+     * @throws IOException  if an I/O error occurs.
+     */
+    static void writeArgFile(File file, List<String> args) throws IOException {
+        try(Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),Charset.defaultCharset()))) {
+            for(String arg : args) {
+                out.write('"');
+                out.write(arg.replace("\\","\\\\").replace("\"","\\\""));
+                out.write('"');
+                out.write('\n');
+            }
         }
-        Main.printDividingLine();
-        System.out.print(javac.status());
-        return javac.getExitCode();
     }
 
     /**
@@ -206,8 +522,12 @@ public class Builder {
         copyFile(sourceFile, targetDir, true);
     }
 
+    private static final int COPY_THREADS = Math.min(8, Runtime.getRuntime().availableProcessors()*2);
+
     /**
-     * Copy file to target directory.
+     * Copy file to target directory. Files whose size and modification time
+     * already match the target are skipped, and files copied by a previous
+     * call with the same arguments whose source has disappeared are removed.
      * @param sourceFile  paths of source files
      * @param targetDir   target directory
      * @param suffix      copy sourceFile full path
@@ -217,87 +537,315 @@ public class Builder {
         if(targetDir.endsWith("\\") || targetDir.endsWith("/")) {
             targetDir = targetDir.substring(0,targetDir.length()-1);
         }
+        // plan
+        Map<File,File> plan = new LinkedHashMap<>();
+        planCopy(sourceFile, targetDir, suffix, plan);
         // copy
+        AtomicInteger copied = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(COPY_THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for(Map.Entry<File,File> e : plan.entrySet()) {
+                final Path src = e.getKey().toPath();
+                final Path dst = e.getValue().toPath();
+                futures.add(pool.submit(() -> {
+                    try(Profiler.Span span = Profiler.begin("copy","file")) {
+                        if(copyIfChanged(src,dst)) {
+                            copied.incrementAndGet();
+                            long size = Files.size(dst);
+                            span.arg("path",src.toString()).arg("bytes",size);
+                            Profiler.count("copy.files",1);
+                            Profiler.count("copy.bytes",size);
+                        } else {
+                            Profiler.count("copy.skipped",1);
+                        }
+                    } catch(IOException ex) {
+                        ex.printStackTrace();
+                    }
+                }));
+            }
+            for(Future<?> future : futures) {
+                future.get();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch(ExecutionException e) {
+            e.getCause().printStackTrace();
+        } finally {
+            pool.shutdown();
+        }
+        // remove stale
+        File list = new File(targetDir+"/"+INDEX_DIR+"/copy-"+
+                             Integer.toHexString((Arrays.toString(sourceFile)+suffix).hashCode())+".lst");
+        Set<String> current = new HashSet<>();
+        for(File target : plan.values()) {
+            current.add(target.getPath());
+        }
+        int removed = 0;
+        for(String path : readList(list)) {
+            if(!current.contains(path) && new File(path).delete()) {
+                removed++;
+            }
+        }
+        writeList(list, current);
+        if(copied.get()>0 || removed>0) {
+            System.out.printf("已复制 %d 个文件, 跳过 %d 个未改变的文件, 删除 %d 个文件\n",
+                copied.get(), plan.size()-copied.get(), removed);
+        }
+    }
+
+    private static void planCopy(String[] sourceFile, String targetDir, boolean suffix, Map<File,File> plan) {
         for(String filepath : sourceFile) {
             File file = new File(filepath);
             if (!file.exists()) continue;
             if (file.isDirectory()) {
                 File[] ls = file.listFiles();
-                if (ls.length > 0) {
+                if (ls != null && ls.length > 0) {
                     String[] lstr = new String[ls.length];
                     for (int i = 0; i < ls.length; i++) {
                         lstr[i] = ls[i].getPath();
                     }
                     if(!suffix) {
-                        copyFile(lstr, targetDir, true);
+                        planCopy(lstr, targetDir, true, plan);
                     } else {
-                        copyFile(lstr, targetDir + "/" + file.getName(), true);
+                        planCopy(lstr, targetDir + "/" + file.getName(), true, plan);
                     }
                 }
                 continue;
             }
-            File tfil = new File(targetDir+"/"+file.getName());
-            Downloader.checkParentDir(tfil.getPath());
-            try(InputStream in = new FileInputStream(file);
-                OutputStream out = new FileOutputStream(tfil)) {
-                while(in.available()>0) {
-                    out.write(in.read());
-                }
-            } catch(java.io.FileNotFoundException e) {
-                e.printStackTrace();
-            } catch(IOException e) {
-                e.printStackTrace();
+            plan.put(file, new File(targetDir+"/"+file.getName()));
+        }
+    }
+
+    /**
+     * Copy file unless target has the same size and modification time.
+     * @param src  source file
+     * @param dst  target file
+     * @return     {@code true} if file was copied.
+     * @throws IOException  if an I/O error occurs.
+     */
+    static boolean copyIfChanged(Path src, Path dst) throws IOException {
+        BasicFileAttributes srcAttrs = Files.readAttributes(src, BasicFileAttributes.class);
+        try {
+            BasicFileAttributes dstAttrs = Files.readAttributes(dst, BasicFileAttributes.class);
+            if(dstAttrs.size()==srcAttrs.size() &&
+               dstAttrs.lastModifiedTime().toMillis()==srcAttrs.lastModifiedTime().toMillis()) {
+                return false;
+            }
+        } catch(NoSuchFileException e) {
+            Path parent = dst.getParent();
+            if(parent!=null) {
+                Files.createDirectories(parent);
+            }
+        }
+        Files.copy(src, dst, StandardCopyOption.REPLACE_EXISTING);
+        Files.setLastModifiedTime(dst, srcAttrs.lastModifiedTime());
+        return true;
+    }
+
+    private static List<String> readList(File list) {
+        List<String> paths = new ArrayList<>();
+        if(!list.isFile()) {
+            return paths;
+        }
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(list)))) {
+            int count = in.readInt();
+            for(int i = 0; i < count; i++) {
+                paths.add(in.readUTF());
+            }
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+        return paths;
+    }
+
+    private static void writeList(File list, Set<String> paths) {
+        Downloader.checkParentDir(list.getAbsolutePath());
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(list)))) {
+            out.writeInt(paths.size());
+            for(String path : paths) {
+                out.writeUTF(path);
             }
-            tfil.setLastModified(file.lastModified());
+        } catch(IOException e) {
+            e.printStackTrace();
         }
     }
 
     /**
-     * Package the files in the {@code build} directory into a {@code JAR} package with command {@code jar}.
-     * @param jarpath  path of JAR package
-     * @param manifet  path of manifest
-     * @return         Exit code of command {@code jar}.
+     * Package the files in the {@code build} directory into a {@code JAR} package.
+     * @param jarpath   path of JAR package
+     * @param manifest  path of manifest
+     * @return          {@code 0} if succeeded, otherwise {@code 1}.
      */
     public int jar(String jarpath, String manifest) {
-        // rm jar
-        new File(jarpath).delete();
-        // if manifest exists
-        String[] cmd;
-        if(new File(manifest).exists()) {
-            cmd = new String[]{
-                "jar","-cvfm",jarpath,manifest,"-C",this.buildpath,"."
-            };
-        } else {
-            cmd = new String[]{
-                "jar","-cvf",jarpath,"-C",this.buildpath,"."
-            };
+        JarWriter jar = new JarWriter(new File(resolve(jarpath)));
+        try {
+            jar.addManifest(new File(resolve(manifest)));
+            jar.addDirectory(new File(resolve(this.buildpath)),INDEX_DIR);
+        } catch(IOException e) {
+            e.printStackTrace();
+            return 1;
+        }
+        return write(jar,jarpath);
+    }
+
+    private JarWriter.Profile jarProfile = JarWriter.Profile.DEFAULT;
+
+    /**
+     * Set packaging profile of JAR.
+     * @param profile  profile
+     */
+    public void setJarProfile(JarWriter.Profile profile) {
+        this.jarProfile = profile;
+    }
+
+    /**
+     * Pack classes compiled to memory together with resources and extra
+     * files, laid out as {@link #copyFile(String[],String,boolean)} would
+     * lay them out in build directory.
+     * @param jarpath    path of JAR
+     * @param manifest   path of manifest
+     * @param resources  resources, as copied without suffix
+     * @param extra      extra files, as copied with suffix
+     * @return           Exit code, {@code 0} if packed.
+     */
+    public int jarInMemory(String jarpath, String manifest, String[] resources, String[] extra) {
+        if(this.classes==null) {
+            System.err.println("Nothing compiled in memory!");
+            return 1;
+        }
+        // lay out
+        Map<File,File> plan = new LinkedHashMap<>();
+        planCopy(resources,"",false,plan);
+        planCopy(extra,"",true,plan);
+        Map<String,Object> tree = new TreeMap<>();
+        for(Map.Entry<File,File> copy : plan.entrySet()) {
+            tree.put(copy.getValue().getPath().replace('\\','/').substring(1),copy.getKey());
+        }
+        for(Map.Entry<String,byte[]> output : this.classes.entrySet()) {
+            tree.put(output.getKey(),output.getValue());
+        }
+        // add
+        JarWriter jar = new JarWriter(new File(resolve(jarpath)));
+        try {
+            jar.addManifest(new File(resolve(manifest)));
+        } catch(IOException e) {
+            e.printStackTrace();
+            return 1;
+        }
+        long now = System.currentTimeMillis();
+        Set<String> dirs = new HashSet<>();
+        dirs.add("META-INF/");
+        for(Map.Entry<String,Object> entry : tree.entrySet()) {
+            String name = entry.getKey();
+            for(int i = name.indexOf('/'); i > -1; i = name.indexOf('/',i+1)) {
+                if(dirs.add(name.substring(0,i+1))) {
+                    jar.addData(name.substring(0,i+1),now,null);
+                }
+            }
+            if(entry.getValue() instanceof File) {
+                jar.addFile((File)entry.getValue(),name);
+            } else {
+                jar.addData(name,now,(byte[])entry.getValue());
+            }
+        }
+        return write(jar,jarpath);
+    }
+
+    private boolean fatJar = false;
+    private JarWriter.Duplicates duplicates = JarWriter.Duplicates.WARN;
+
+    /**
+     * Pack all libraries on classpath into JAR, copying their entries as
+     * they are instead of extracting them into build directory.
+     * @param fatJar      whether to pack libraries
+     * @param duplicates  what to do with duplicate entries of libraries
+     */
+    public void setFatJar(boolean fatJar, JarWriter.Duplicates duplicates) {
+        this.fatJar = fatJar;
+        this.duplicates = duplicates;
+    }
+
+    /**
+     * Get libraries of project to be packed into fat JAR: remote libraries,
+     * Maven dependencies and {@code ./lib}, in classpath order. Public
+     * libraries of {@code ~/.sessx/lib} are left out, as psb4j itself is
+     * installed there, and so is psb4j wherever it is found.
+     * @return Library files.
+     */
+    private List<File> libraryFiles() {
+        ClassPathCache cache = ClassPathCache.load(new File(resolve(this.buildpath),INDEX_DIR+"/classpath.idx"));
+        Set<String> paths = new LinkedHashSet<>();
+        for(File file : this.libraries) {
+            paths.add(file.getAbsolutePath());
+        }
+        paths.addAll(cache.resolve(new File(this.pwd+"/lib")));
+        File self = null;
+        try {
+            self = new File(Builder.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch(URISyntaxException | RuntimeException e) {
+            // unknown location, nothing to leave out
+        }
+        List<File> files = new ArrayList<>();
+        for(String path : paths) {
+            File file = new File(path);
+            if(self!=null && sameFile(file,self)) {
+                continue;
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    private static boolean sameFile(File a, File b) {
+        try {
+            return a.getCanonicalFile().equals(b.getCanonicalFile());
+        } catch(IOException e) {
+            return a.getAbsoluteFile().equals(b.getAbsoluteFile());
+        }
+    }
+
+    private int write(JarWriter jar, String jarpath) {
+        jar.setIncremental(true);
+        jar.setProfile(this.jarProfile);
+        if(this.fatJar) {
+            for(File library : libraryFiles()) {
+                jar.addLibrary(library);
+            }
+            jar.setDuplicates(this.duplicates);
         }
-        // pack
-        Command jar = new Command(cmd,this.pwd);
         Main.printDividingLine();
         System.out.print(jar.status());
         Main.printDividingLine();
-        try {
-            jar.run();
+        try(Profiler.Span span = Profiler.begin("jar","write")) {
+            jar.write();
+            span.arg("entries",jar.size());
         } catch(IOException e) {
             e.printStackTrace();
+            System.err.println("Could not write "+jarpath+"!");
+            return 1;
         }
-        Main.printDividingLine();
         System.out.print(jar.status());
-        return jar.getExitCode();
+        return 0;
     }
 
-    public static void download(String[] urls, String targetDir) {
-        for(String url : urls) {
-            try {
-                Downloader downloader = new Downloader(url,targetDir);
-                downloader.download();
-            } catch(IOException | URISyntaxException e) {
-                e.printStackTrace();
-            } catch(IllegalStateException e) {
-                // do nothing...
-            }
+    /**
+     * Download files concurrently into artifact cache.
+     * @param urls         URLs of files, optionally with {@code #sha256=} checksums
+     * @param cacheDir     artifact cache directory
+     * @param concurrency  max number of concurrent downloads
+     * @return             Cached files, or {@code null} if any download failed.
+     */
+    public static List<File> download(String[] urls, String cacheDir, int concurrency) {
+        DownloadScheduler scheduler = new DownloadScheduler(cacheDir,concurrency);
+        if(!scheduler.downloadAll(urls)) {
+            return null;
         }
+        return scheduler.getFiles();
+    }
+
+    public static List<File> download(String[] urls, String cacheDir) {
+        return download(urls,cacheDir,DownloadScheduler.DEFAULT_CONCURRENCY);
     }
 
 }
\ No newline at end of file
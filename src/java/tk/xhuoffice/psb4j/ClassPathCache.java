@@ -0,0 +1,242 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Cache of library directories on classpath, stored in the build directory.
+ * A directory is listed again only if its modification time changed, and a
+ * file is probed again with {@link Builder#isZip(File)} and resolved to its
+ * canonical path only if its size or modification time changed.
+ */
+public class ClassPathCache {
+
+    private static final int MAGIC = 0x50534250; // PSBP
+    private static final int VERSION = 1;
+
+    /**
+     * File in a library directory.
+     */
+    static class Lib {
+        String name;
+        long size;
+        long mtime;
+        boolean zip;
+        String path;
+    }
+
+    /**
+     * Library directory.
+     */
+    static class Dir {
+        long mtime;
+        List<Lib> libs = new ArrayList<>();
+    }
+
+    private final File file;
+    private final Map<String,Dir> dirs = new LinkedHashMap<>();
+    private boolean changed = false;
+
+    private ClassPathCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Load cache from file. An empty cache is returned if file does not exist or is corrupt.
+     * @param file  cache file
+     * @return      Loaded cache.
+     */
+    public static ClassPathCache load(File file) {
+        ClassPathCache cache = new ClassPathCache(file);
+        if(!file.isFile()) {
+            return cache;
+        }
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if(in.readInt()!=MAGIC || in.readInt()!=VERSION) {
+                return cache;
+            }
+            int dirs = in.readInt();
+            for(int i = 0; i < dirs; i++) {
+                String path = in.readUTF();
+                Dir dir = new Dir();
+                dir.mtime = in.readLong();
+                int libs = in.readInt();
+                for(int j = 0; j < libs; j++) {
+                    Lib lib = new Lib();
+                    lib.name = in.readUTF();
+                    lib.size = in.readLong();
+                    lib.mtime = in.readLong();
+                    lib.zip = in.readBoolean();
+                    lib.path = in.readUTF();
+                    dir.libs.add(lib);
+                }
+                cache.dirs.put(path,dir);
+            }
+        } catch(IOException e) {
+            e.printStackTrace();
+            cache.dirs.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * Save cache to file if anything changed.
+     */
+    public void save() {
+        if(!this.changed) {
+            return;
+        }
+        Downloader.checkParentDir(this.file.getAbsolutePath());
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.dirs.size());
+            for(Map.Entry<String,Dir> e : this.dirs.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().mtime);
+                out.writeInt(e.getValue().libs.size());
+                for(Lib lib : e.getValue().libs) {
+                    out.writeUTF(lib.name);
+                    out.writeLong(lib.size);
+                    out.writeLong(lib.mtime);
+                    out.writeBoolean(lib.zip);
+                    out.writeUTF(lib.path);
+                }
+            }
+            this.changed = false;
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Get {@code ZIP} archives in library directory.
+     * @param directory  library directory
+     * @return           Canonical paths of archives.
+     */
+    public List<String> resolve(File directory) {
+        String key = directory.getAbsolutePath();
+        Dir cached = this.dirs.get(key);
+        List<String> cp = new ArrayList<>();
+        if(!directory.isDirectory()) {
+            if(cached!=null) {
+                this.dirs.remove(key);
+                this.changed = true;
+            }
+            return cp;
+        }
+        long mtime = directory.lastModified();
+        Dir dir;
+        if(cached!=null && cached.mtime==mtime) {
+            // same listing, probe changed files only
+            dir = cached;
+            for(Lib lib : dir.libs) {
+                File file = new File(directory,lib.name);
+                if(file.length()!=lib.size || file.lastModified()!=lib.mtime) {
+                    probe(lib,file);
+                    this.changed = true;
+                }
+            }
+        } else {
+            // list again, reuse unchanged files
+            Map<String,Lib> old = new LinkedHashMap<>();
+            if(cached!=null) {
+                for(Lib lib : cached.libs) {
+                    old.put(lib.name,lib);
+                }
+            }
+            dir = new Dir();
+            dir.mtime = mtime;
+            File[] ls = directory.listFiles();
+            if(ls!=null) {
+                for(File file : ls) {
+                    if(!file.isFile()) {
+                        continue;
+                    }
+                    Lib lib = old.get(file.getName());
+                    if(lib==null || file.length()!=lib.size || file.lastModified()!=lib.mtime) {
+                        lib = new Lib();
+                        lib.name = file.getName();
+                        probe(lib,file);
+                    }
+                    dir.libs.add(lib);
+                }
+            }
+            this.dirs.put(key,dir);
+            this.changed = true;
+        }
+        for(Lib lib : dir.libs) {
+            if(lib.zip) {
+                cp.add(lib.path);
+            }
+        }
+        return cp;
+    }
+
+    private static void probe(Lib lib, File file) {
+        lib.size = file.length();
+        lib.mtime = file.lastModified();
+        lib.zip = Builder.isZip(file);
+        try {
+            lib.path = file.getCanonicalPath();
+        } catch(IOException e) {
+            lib.path = file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Get a stamp of all cached libraries, which changes whenever a library
+     * is added, removed or modified.
+     * @return Stamp.
+     */
+    public String stamp() {
+        long hash = 1;
+        for(Dir dir : this.dirs.values()) {
+            for(Lib lib : dir.libs) {
+                if(lib.zip) {
+                    hash = 31*hash + lib.path.hashCode();
+                    hash = 31*hash + lib.size;
+                    hash = 31*hash + lib.mtime;
+                }
+            }
+        }
+        return Long.toHexString(hash);
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+
+/**
+ * Thin client forwarding command arguments to a running {@link Daemon} and
+ * streaming its output back. If no daemon is running, build runs in this
+ * process instead.
+ */
+public class Client {
+
+    private Client() {}
+
+    /**
+     * Client entrance.
+     * @param args  command arguments, as for {@link Main}
+     */
+    public static void main(String[] args) {
+        int exitCode;
+        try {
+            exitCode = run(args);
+        } catch(IOException e) {
+            if(Arrays.asList(args).contains(Daemon.STOP)) {
+                System.err.println("No psb4j daemon is running");
+                System.exit(0);
+            }
+            // no daemon
+            Main.main(args);
+            return;
+        }
+        System.exit(exitCode);
+    }
+
+    /**
+     * Run build on daemon. Once connected, build is never run elsewhere, as
+     * daemon may have started it already: a connection lost afterwards is
+     * reported and fails the build.
+     * @param args  command arguments
+     * @return      Exit code of build.
+     * @throws IOException  if no daemon could be reached.
+     */
+    public static int run(String[] args) throws IOException {
+        File info = Daemon.infoFile();
+        if(!info.isFile()) {
+            throw new IOException("No psb4j daemon is running");
+        }
+        String[] portToken = new String(Files.readAllBytes(info.toPath()),StandardCharsets.UTF_8).trim().split(" ");
+        int port;
+        try {
+            port = Integer.parseInt(portToken[0]);
+        } catch(NumberFormatException e) {
+            throw new IOException("Invalid daemon information "+info.getPath(),e);
+        }
+        if(portToken.length<2) {
+            throw new IOException("Invalid daemon information "+info.getPath());
+        }
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(),port),1000);
+        } catch(IOException e) {
+            socket.close();
+            throw e;
+        }
+        return talk(socket,portToken[1],args);
+    }
+
+    private static int talk(Socket socket, String token, String[] args) {
+        try(Socket connected = socket) {
+            // request
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connected.getOutputStream()));
+            out.writeUTF(token);
+            out.writeUTF(System.getProperty("user.dir"));
+            out.writeInt(args.length);
+            for(String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            // response
+            DataInputStream in = new DataInputStream(new BufferedInputStream(connected.getInputStream()));
+            byte[] buffer = new byte[8192];
+            while(true) {
+                int type = in.readUnsignedByte();
+                if(type==Daemon.FRAME_EXIT) {
+                    System.out.flush();
+                    System.err.flush();
+                    return in.readInt();
+                }
+                int len = in.readInt();
+                if(buffer.length<len) {
+                    buffer = new byte[len];
+                }
+                in.readFully(buffer,0,len);
+                if(type==Daemon.FRAME_ERR) {
+                    System.err.write(buffer,0,len);
+                } else {
+                    System.out.write(buffer,0,len);
+                }
+            }
+        } catch(IOException e) {
+            System.out.flush();
+            System.err.println("Connection to psb4j daemon lost: "+e);
+            return 1;
+        }
+    }
+
+}
@@ -28,7 +28,9 @@ package tk.xhuoffice.psb4j;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
 
 
 public class Command {
@@ -92,28 +94,81 @@ public class Command {
         this(null,command,null);
     }
 
+    private int captureLimit = 0;
+    private byte[] captured = null;
+    private int capturedStart = 0;
+    private int capturedLength = 0;
+
+    /**
+     * Keep the last bytes of output of command in memory.
+     * @param limit  max number of bytes kept, {@code 0} to disable capture
+     */
+    public void setCapture(int limit) {
+        if(limit<0) {
+            throw new IllegalArgumentException("limit was negative");
+        }
+        this.captureLimit = limit;
+    }
+
+    /**
+     * Get captured output of command, both standard output and standard error.
+     * @return Captured output, or {@code null} if capture is disabled.
+     */
+    public synchronized String getOutput() {
+        if(this.captured==null) {
+            return this.captureLimit>0 ? "" : null;
+        }
+        byte[] out = new byte[this.capturedLength];
+        int first = Math.min(this.capturedLength,this.captured.length-this.capturedStart);
+        System.arraycopy(this.captured,this.capturedStart,out,0,first);
+        System.arraycopy(this.captured,0,out,first,this.capturedLength-first);
+        return new String(out,Charset.defaultCharset());
+    }
+
+    private synchronized void capture(byte[] b, int off, int len) {
+        if(this.captured==null) {
+            this.captured = new byte[this.captureLimit];
+        }
+        if(len>=this.captured.length) {
+            // keep tail only
+            System.arraycopy(b,off+len-this.captured.length,this.captured,0,this.captured.length);
+            this.capturedStart = 0;
+            this.capturedLength = this.captured.length;
+            return;
+        }
+        for(int i = 0; i < len; i++) {
+            int pos = (this.capturedStart+this.capturedLength)%this.captured.length;
+            this.captured[pos] = b[off+i];
+            if(this.capturedLength<this.captured.length) {
+                this.capturedLength++;
+            } else {
+                this.capturedStart = (this.capturedStart+1)%this.captured.length;
+            }
+        }
+    }
+
     /**
-     * Run command.
+     * Run command and wait for it. Standard input is inherited, standard
+     * output and standard error are transferred by pump threads.
      * @throws IOException  if an I/O error occurs.
      */
     public void run() throws IOException {
         // process
-        this.process = new ProcessBuilder(command).directory(pwd).start();
+        this.process = new ProcessBuilder(command).directory(pwd)
+                                                  .redirectInput(ProcessBuilder.Redirect.INHERIT)
+                                                  .start();
         // stream
-        InputStream in = this.process.getInputStream();
-        InputStream err = this.process.getErrorStream();
-        OutputStream out = this.process.getOutputStream();
-        // read & write
-        while(this.process.isAlive()) {
-            if(System.in.available()>0) {
-                out.write(System.in.read());
-            }
-            if(in.available()>0) {
-                System.out.write(in.read());
-            }
-            if(err.available()>0) {
-                System.err.write(err.read());
-            }
+        Thread out = pump(this.process.getInputStream(),System.out,"stdout");
+        Thread err = pump(this.process.getErrorStream(),System.err,"stderr");
+        // wait
+        try {
+            this.process.waitFor();
+            out.join();
+            err.join();
+        } catch(InterruptedException e) {
+            this.process.destroy();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for "+this.name);
         }
         if(this.process.exitValue()!=0) {
             System.err.print("Process exit with code ");
@@ -122,11 +177,35 @@ public class Command {
         }
     }
 
+    private Thread pump(InputStream in, PrintStream target, String stream) {
+        Thread pump = new Thread(() -> {
+            byte[] buffer = new byte[8192];
+            int len;
+            try(InputStream input = in) {
+                while((len=input.read(buffer))!=-1) {
+                    target.write(buffer,0,len);
+                    target.flush();
+                    if(this.captureLimit>0) {
+                        capture(buffer,0,len);
+                    }
+                }
+            } catch(IOException e) {
+                e.printStackTrace();
+            }
+        }, "CommandPump-"+this.name+"-"+stream);
+        pump.setDaemon(true);
+        pump.start();
+        return pump;
+    }
+
     /**
      * Get process exit code.
-     * @return Exit code.
+     * @return Exit code, {@code -1} if command has not been run.
      */
     public int getExitCode() {
+        if(this.process==null) {
+            return -1;
+        }
         return this.process.exitValue();
     }
 
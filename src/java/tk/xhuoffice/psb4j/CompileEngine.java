@@ -0,0 +1,325 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+
+public class CompileEngine implements DiagnosticListener<JavaFileObject> {
+
+    private String[] options;
+
+    /**
+     * Get compiler options.
+     * @return compiler options
+     */
+    public String[] getOptions() {
+        return this.options;
+    }
+
+    private String[] sources;
+
+    /**
+     * Get source files to be compiled.
+     * @return source files
+     */
+    public String[] getSources() {
+        return this.sources;
+    }
+
+    private JavaCompiler compiler;
+
+    private Map<String,byte[]> outputs = null;
+
+    private List<String> diagnostics = null;
+
+    /**
+     * Keep diagnostics and counts instead of printing them.
+     * @param quiet  whether to keep diagnostics
+     */
+    public void setQuiet(boolean quiet) {
+        this.diagnostics = quiet ? new ArrayList<String>() : null;
+    }
+
+    /**
+     * Get diagnostics kept by a quiet compiler.
+     * @return Diagnostics, or {@code null} if not quiet.
+     */
+    public List<String> getDiagnostics() {
+        return this.diagnostics;
+    }
+
+    /**
+     * Keep generated class files and resources in memory instead of writing
+     * them to class output directory.
+     * @param inMemory  whether to keep outputs in memory
+     */
+    public void setOutputInMemory(boolean inMemory) {
+        this.outputs = inMemory ? new TreeMap<String,byte[]>() : null;
+    }
+
+    /**
+     * Get outputs kept in memory.
+     * @return Content of outputs by path relative to class output, e.g.
+     *         {@code a/A.class}, or {@code null} if not kept in memory.
+     */
+    public Map<String,byte[]> getOutputs() {
+        return this.outputs;
+    }
+
+    private int exitCode = -1;
+    private int errors = 0;
+    private int warnings = 0;
+
+    public CompileEngine(String[] options, String[] sources) {
+        if(options==null) {
+            throw new NullPointerException("options");
+        }
+        if(sources==null) {
+            throw new NullPointerException("sources");
+        }
+        this.compiler = systemCompiler();
+        if(this.compiler==null) {
+            throw new IllegalStateException("No system Java compiler available");
+        }
+        this.options = options;
+        this.sources = sources;
+    }
+
+    /**
+     * Detect if current runtime ships a Java compiler.
+     * @return Result.
+     */
+    public static boolean isAvailable() {
+        return systemCompiler()!=null;
+    }
+
+    private static JavaCompiler systemCompiler;
+
+    /**
+     * Get system Java compiler, kept for later builds in the same JVM.
+     * @return Compiler, or {@code null} if current runtime ships none.
+     */
+    static synchronized JavaCompiler systemCompiler() {
+        if(systemCompiler==null) {
+            systemCompiler = ToolProvider.getSystemJavaCompiler();
+        }
+        return systemCompiler;
+    }
+
+    /**
+     * Compile sources in current JVM.
+     */
+    public void run() {
+        this.errors = 0;
+        this.warnings = 0;
+        try(StandardJavaFileManager fm = this.compiler.getStandardFileManager(this,null,null)) {
+            List<File> files = new ArrayList<>();
+            for(String source : this.sources) {
+                files.add(new File(source));
+            }
+            Iterable<? extends JavaFileObject> units = fm.getJavaFileObjectsFromFiles(files);
+            JavaFileManager manager = this.outputs==null ? fm : new MemoryFileManager(fm,this.outputs);
+            boolean success = this.compiler.getTask(null,manager,this,Arrays.asList(this.options),null,units).call();
+            this.exitCode = success ? 0 : 1;
+        } catch(RuntimeException e) {
+            // invalid options or compiler crash
+            e.printStackTrace();
+            this.exitCode = 2;
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+        if(this.diagnostics!=null) {
+            return;
+        }
+        // print counts as javac does
+        printCount(this.errors, "error");
+        printCount(this.warnings, "warning");
+        if(this.exitCode!=0) {
+            System.err.print("Compiler exit with code ");
+            System.err.print(this.exitCode);
+            System.err.println("!");
+        }
+    }
+
+    /**
+     * File manager keeping class output in memory.
+     */
+    private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+        private final Map<String,byte[]> outputs;
+
+        MemoryFileManager(StandardJavaFileManager fm, Map<String,byte[]> outputs) {
+            super(fm);
+            this.outputs = outputs;
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) throws IOException {
+            if(location!=StandardLocation.CLASS_OUTPUT) {
+                return super.getJavaFileForOutput(location,className,kind,sibling);
+            }
+            return new Output(className.replace('.','/')+kind.extension,kind);
+        }
+
+        @Override
+        public FileObject getFileForOutput(Location location, String packageName, String relativeName, FileObject sibling) throws IOException {
+            if(location!=StandardLocation.CLASS_OUTPUT) {
+                return super.getFileForOutput(location,packageName,relativeName,sibling);
+            }
+            String path = packageName.isEmpty() ? relativeName : packageName.replace('.','/')+"/"+relativeName;
+            return new Output(path,JavaFileObject.Kind.OTHER);
+        }
+
+        private class Output extends SimpleJavaFileObject {
+
+            private final String path;
+
+            Output(String path, JavaFileObject.Kind kind) {
+                super(URI.create("memory:///"+path),kind);
+                this.path = path;
+            }
+
+            @Override
+            public OutputStream openOutputStream() {
+                return new ByteArrayOutputStream() {
+                    @Override
+                    public void close() {
+                        synchronized(outputs) {
+                            outputs.put(path,toByteArray());
+                        }
+                    }
+                };
+            }
+
+        }
+
+    }
+
+    private static void printCount(int count, String kind) {
+        if(count==1) {
+            System.err.printf("1 %s\n", kind);
+        } else if(count>1) {
+            System.err.printf("%d %ss\n", count, kind);
+        }
+    }
+
+    @Override
+    public void report(Diagnostic<? extends JavaFileObject> diagnostic) {
+        switch(diagnostic.getKind()) {
+            case ERROR:
+                this.errors++;
+                break;
+            case WARNING:
+            case MANDATORY_WARNING:
+                this.warnings++;
+                break;
+            default:
+                break;
+        }
+        if(this.diagnostics!=null) {
+            this.diagnostics.add(diagnostic.toString());
+        } else {
+            System.err.println(diagnostic);
+        }
+    }
+
+    /**
+     * Get compiler exit code.
+     * @return Exit code, {@code -1} if not finished yet.
+     */
+    public int getExitCode() {
+        return this.exitCode;
+    }
+
+    private static final String DIVIDING_LINE = "------------------------------------------------\n";
+
+    /**
+     * Report compiler status.
+     * @return Formatted compiler status.
+     */
+    public String status() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Compiler Information: \n");
+        sb.append(DIVIDING_LINE);
+        // compiler
+        {
+            // name
+            sb.append("Name: ");
+            sb.append(this.compiler.getClass().getName());
+            sb.append('\n');
+            // options
+            sb.append("Options: ");
+            for(String option : this.options) {
+                sb.append(option);
+                sb.append(" ");
+            }
+            sb.append("\n");
+            // sources
+            sb.append("Sources: ");
+            sb.append(this.sources.length);
+            sb.append("\n");
+        }
+        if(this.exitCode==-1) {
+            return sb.toString();
+        }
+        sb.append(DIVIDING_LINE);
+        // result
+        {
+            sb.append("Errors: ");
+            sb.append(this.errors);
+            sb.append(" \n");
+            sb.append("Warnings: ");
+            sb.append(this.warnings);
+            sb.append(" \n");
+            sb.append("Exit code: ");
+            sb.append(this.exitCode);
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+
+/**
+ * Long-lived psb4j process which runs builds sent by {@link Client}, so that
+ * JVM startup, class loading and JIT warm-up are paid only once. Builds run
+ * one after another, with their output streamed back to the client.
+ * <p>
+ * The daemon listens on a loopback port, which is written together with a
+ * random token to {@code ~/.sessx/psb4j.daemon}; clients must present the
+ * token.
+ */
+public class Daemon {
+
+    static final int FRAME_OUT = 1;
+    static final int FRAME_ERR = 2;
+    static final int FRAME_EXIT = 3;
+
+    static final String STOP = "--stop-daemon";
+
+    private Daemon() {}
+
+    /**
+     * Get file keeping port and token of running daemon.
+     * @return Daemon information file.
+     */
+    static File infoFile() {
+        return new File(System.getProperty("user.home")+"/.sessx/psb4j.daemon");
+    }
+
+    /**
+     * Listen for builds until a client sends {@code --stop-daemon}.
+     * @throws IOException  if daemon could not be started.
+     */
+    public static void serve() throws IOException {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        File info = infoFile();
+        try(ServerSocket server = new ServerSocket(0,50,InetAddress.getLoopbackAddress())) {
+            // token
+            byte[] random = new byte[16];
+            new SecureRandom().nextBytes(random);
+            String token = ArtifactCache.toHex(random);
+            Downloader.checkParentDir(info.getAbsolutePath());
+            try(OutputStream out = new FileOutputStream(info)) {
+                info.setReadable(false,false);
+                info.setReadable(true,true);
+                info.setWritable(false,false);
+                info.setWritable(true,true);
+                out.write((server.getLocalPort()+" "+token).getBytes(StandardCharsets.UTF_8));
+            }
+            stdout.printf("Psb4j daemon listening on port %d\n", server.getLocalPort());
+            // serve
+            boolean running = true;
+            while(running) {
+                try(Socket socket = server.accept()) {
+                    running = handle(socket,token);
+                } catch(IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    System.setOut(stdout);
+                    System.setErr(stderr);
+                }
+            }
+            stdout.println("Psb4j daemon stopped");
+        } finally {
+            info.delete();
+        }
+    }
+
+    private static boolean handle(Socket socket, String token) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        if(!in.readUTF().equals(token)) {
+            return true;
+        }
+        String cwd = in.readUTF();
+        String[] args = new String[in.readInt()];
+        for(int i = 0; i < args.length; i++) {
+            args[i] = in.readUTF();
+        }
+        if(Arrays.asList(args).contains(STOP)) {
+            writeExit(out,0);
+            return false;
+        }
+        if(Arrays.asList(args).contains("--watch")) {
+            byte[] msg = "--watch is not supported by psb4j daemon\n".getBytes(StandardCharsets.UTF_8);
+            new FrameOutputStream(out,FRAME_ERR).write(msg,0,msg.length);
+            writeExit(out,2);
+            return true;
+        }
+        // build
+        PrintStream o = new PrintStream(new FrameOutputStream(out,FRAME_OUT),true);
+        PrintStream e = new PrintStream(new FrameOutputStream(out,FRAME_ERR),true);
+        System.setOut(o);
+        System.setErr(e);
+        int exitCode;
+        try {
+            exitCode = Main.build(args,cwd);
+        } catch(RuntimeException | Error ex) {
+            ex.printStackTrace();
+            exitCode = 1;
+        }
+        o.flush();
+        e.flush();
+        writeExit(out,exitCode);
+        return true;
+    }
+
+    private static void writeExit(DataOutputStream out, int exitCode) throws IOException {
+        synchronized(out) {
+            out.writeByte(FRAME_EXIT);
+            out.writeInt(exitCode);
+            out.flush();
+        }
+    }
+
+    /**
+     * Stream writing data as frames of {@code type, length, bytes}.
+     */
+    static class FrameOutputStream extends OutputStream {
+
+        private final DataOutputStream out;
+        private final int type;
+
+        FrameOutputStream(DataOutputStream out, int type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte)b},0,1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if(len==0) {
+                return;
+            }
+            synchronized(this.out) {
+                this.out.writeByte(this.type);
+                this.out.writeInt(len);
+                this.out.write(b,off,len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized(this.out) {
+                this.out.flush();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,279 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Downloads several files concurrently with a bounded number of threads
+ * into an {@link ArtifactCache}.
+ * Connections to the same host are reused through HTTP keep-alive, progress
+ * of all downloads is reported by a single thread, and as soon as one of
+ * them fails, running downloads are cancelled and pending ones skipped.
+ */
+public class DownloadScheduler {
+
+    /**
+     * Default number of concurrent downloads.
+     */
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    private final File cacheDir;
+    private final ArtifactCache cache;
+    private final int concurrency;
+    private File[] files = new File[0];
+
+    private final List<Downloader> active = new CopyOnWriteArrayList<>();
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicBoolean failed = new AtomicBoolean(false);
+    private final AtomicInteger finished = new AtomicInteger();
+
+    public DownloadScheduler(String cacheDir, int concurrency) {
+        if(cacheDir==null) {
+            throw new NullPointerException("cacheDir");
+        }
+        if(concurrency<1) {
+            throw new IllegalArgumentException("concurrency was less than 1");
+        }
+        this.cacheDir = new File(cacheDir);
+        this.cache = new ArtifactCache(this.cacheDir);
+        this.concurrency = concurrency;
+    }
+
+    public DownloadScheduler(String cacheDir) {
+        this(cacheDir,DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Download all files into artifact cache, skipping those already cached.
+     * @param specs  URLs of files, optionally with {@code #sha256=} checksums
+     * @return       {@code true} if all files are available.
+     */
+    public boolean downloadAll(String[] specs) {
+        if(specs.length==0) {
+            return true;
+        }
+        // same URL listed twice, e.g. as remote lib and Maven dependency,
+        // is downloaded once, preferring the spec with a checksum
+        Map<String,Integer> unique = new LinkedHashMap<>();
+        List<String> scheduled = new ArrayList<>();
+        int[] slot = new int[specs.length];
+        for(int i = 0; i < specs.length; i++) {
+            String url = ArtifactCache.url(specs[i]);
+            Integer index = unique.get(url);
+            if(index==null) {
+                index = scheduled.size();
+                unique.put(url,index);
+                scheduled.add(specs[i]);
+            } else {
+                String expected = ArtifactCache.expected(specs[i]);
+                String other = ArtifactCache.expected(scheduled.get(index));
+                if(expected!=null && other!=null && !expected.equals(other)) {
+                    System.err.println("Conflicting checksums for "+url);
+                    return false;
+                }
+                if(other==null) {
+                    scheduled.set(index,specs[i]);
+                }
+            }
+            slot[i] = index;
+        }
+        String[] urls = scheduled.toArray(new String[0]);
+        // create cache directory once, not racing in each downloader
+        Downloader.checkParentDir(new File(this.cacheDir,"tmp").getAbsolutePath());
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(this.concurrency,urls.length));
+        Thread reporter = new Thread(() -> report(urls.length), "DownloadProgressReporter");
+        reporter.setDaemon(true);
+        reporter.start();
+        this.files = new File[urls.length];
+        for(int i = 0; i < urls.length; i++) {
+            final int index = i;
+            pool.execute(() -> download(index,urls[index]));
+        }
+        pool.shutdown();
+        try {
+            while(!pool.awaitTermination(1,TimeUnit.HOURS)) {}
+        } catch(InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        reporter.interrupt();
+        // summary
+        if(!this.errors.isEmpty()) {
+            Main.printDividingLine();
+            System.err.printf("%d of %d downloads failed:\n", this.errors.size(), urls.length);
+            for(String error : this.errors) {
+                System.err.println("    "+error);
+            }
+            return false;
+        }
+        File[] downloaded = this.files;
+        this.files = new File[specs.length];
+        for(int i = 0; i < specs.length; i++) {
+            this.files[i] = downloaded[slot[i]];
+        }
+        return !this.failed.get();
+    }
+
+    private void download(int i, String spec) {
+        if(this.failed.get()) {
+            // fail fast
+            this.finished.incrementAndGet();
+            return;
+        }
+        String url = ArtifactCache.url(spec);
+        Downloader downloader = null;
+        Closeable lock = null;
+        try(Profiler.Span span = Profiler.begin("download","fetch")) {
+            span.arg("url",url);
+            String name = Downloader.fileName(url);
+            // cache hit
+            File cached = this.cache.lookup(spec,name);
+            if(cached!=null) {
+                this.files[i] = cached;
+                span.arg("cache","hit");
+                Profiler.count("download.cacheHits",1);
+                return;
+            }
+            // download
+            lock = this.cache.lockTemp(spec);
+            cached = this.cache.lookup(spec,name);
+            if(cached!=null) {
+                // stored by another process meanwhile
+                this.files[i] = cached;
+                span.arg("cache","hit");
+                Profiler.count("download.cacheHits",1);
+                return;
+            }
+            File tmp = this.cache.tempDir(spec);
+            File done = new File(tmp,name);
+            String digest;
+            if(done.isFile()) {
+                // downloaded but not stored by an interrupted run,
+                // only ever moved here once complete
+                digest = ArtifactCache.sha256(done);
+            } else if(url.startsWith("file:")) {
+                // local repository
+                Files.createDirectories(tmp.toPath());
+                File part = new File(tmp,name+Downloader.PART_SUFFIX);
+                Files.copy(Paths.get(new URI(url)),part.toPath(),StandardCopyOption.REPLACE_EXISTING);
+                Files.move(part.toPath(),done.toPath(),StandardCopyOption.ATOMIC_MOVE);
+                digest = ArtifactCache.sha256(done);
+            } else {
+                downloader = new Downloader(url,tmp.getPath());
+                downloader.setProgressReport(false);
+                this.active.add(downloader);
+                downloader.download();
+                if(downloader.getError()!=null) {
+                    throw downloader.getError();
+                }
+                digest = downloader.getDigest();
+            }
+            this.files[i] = this.cache.store(spec,done,digest);
+            span.arg("cache","miss").arg("bytes",this.files[i].length());
+            Profiler.count("download.files",1);
+            Profiler.count("download.bytes",this.files[i].length());
+        } catch(IOException | URISyntaxException | RuntimeException e) {
+            if(this.failed.compareAndSet(false,true)) {
+                for(Downloader other : this.active) {
+                    if(other!=downloader) {
+                        other.cancel();
+                    }
+                }
+            }
+            this.errors.add(url+": "+e);
+        } finally {
+            if(downloader!=null) {
+                this.active.remove(downloader);
+            }
+            if(lock!=null) {
+                try {
+                    lock.close();
+                } catch(IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            this.finished.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get downloaded files.
+     * @return Cached artifacts in order of URLs.
+     */
+    public List<File> getFiles() {
+        List<File> files = new ArrayList<>();
+        for(File file : this.files) {
+            if(file!=null) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private void report(int total) {
+        while(!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(1000L);
+            } catch(InterruptedException e) {
+                return;
+            }
+            long progress = 0;
+            long length = 0;
+            for(Downloader downloader : this.active) {
+                progress += downloader.getProgress();
+                if(downloader.getLength()>0) {
+                    length += downloader.getLength();
+                }
+            }
+            if(this.active.isEmpty()) {
+                continue;
+            }
+            System.out.printf("Download progress: %d/%d files, %d/%d bytes (%d active)\n",
+                this.finished.get(), total, progress, length, this.active.size());
+        }
+    }
+
+}
@@ -26,24 +26,34 @@
 package tk.xhuoffice.psb4j;
 
 import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 
 
 public class Downloader {
     
     private File file = null;
+    private File part = null;
     private String path = null;
     private String fname = null;
-    private HttpURLConnection conn = null;
+    private URL url = null;
+    private volatile HttpURLConnection conn = null;
     private OutputStream out = null;
 
     private String status = "init";
@@ -56,7 +66,7 @@ public class Downloader {
             fileDirPath += "/";
         }
         URL url0 = new URI(url).toURL();
-        this.fname = Paths.get(url0.getPath()).getFileName().toString();
+        this.fname = fileName(url0);
         this.path = fileDirPath + this.fname;
         this.file = new File(this.path);
         if(this.file.exists()) {
@@ -64,14 +74,28 @@ public class Downloader {
         } else {
             checkParentDir(this.file.getAbsolutePath());
         }
-        this.out = new FileOutputStream(this.file);
+        this.part = new File(this.path+PART_SUFFIX);
         // create connection
+        this.url = url0;
         this.conn = setGetConnURL(url0);
         // return
         this.status = "ready";
         return;
     }
     
+    /**
+     * Get name of file to be downloaded from URL.
+     * @param url  URL
+     * @return     Last segment of URL path.
+     */
+    public static String fileName(URL url) {
+        return Paths.get(url.getPath()).getFileName().toString();
+    }
+
+    public static String fileName(String url) throws IOException, URISyntaxException {
+        return fileName(new URI(url).toURL());
+    }
+
     /**
      * Set {@code HttpURLConnection} with request method GET.
      * @param url  URL.
@@ -134,78 +158,262 @@ public class Downloader {
         return this.length;
     }
 
-    private long progress = 0;
+    private volatile long progress = 0;
     public long getProgress() {
         return this.progress;
     }
+
+    private MessageDigest digest = null;
+    private String sha256 = null;
+
+    /**
+     * Get SHA-256 of downloaded file, calculated while downloading.
+     * @return Lower case hex digest, or {@code null} if not finished.
+     */
+    public String getDigest() {
+        return this.sha256;
+    }
+
+    private IOException error = null;
+
+    /**
+     * Get error which caused download to fail.
+     * @return Error, or {@code null} if download did not fail.
+     */
+    public IOException getError() {
+        return this.error;
+    }
+
+    private boolean progressReport = true;
+
+    /**
+     * Set whether progress is reported by this downloader every second.
+     * @param progressReport  whether to report progress
+     */
+    public void setProgressReport(boolean progressReport) {
+        this.progressReport = progressReport;
+    }
     
     /**
-     * Download file.
+     * Suffix of file being downloaded. The file is renamed to its final name
+     * only once download completes, so an interrupted download can be resumed.
+     */
+    public static final String PART_SUFFIX = ".part";
+
+    /**
+     * Suffix of file next to {@code .part} file keeping {@code ETag} or
+     * {@code Last-Modified} of the response it was written from, sent as
+     * {@code If-Range} when resuming so that a changed remote file is
+     * downloaded again instead of being appended to the old part.
+     */
+    public static final String VALIDATOR_SUFFIX = ".validator";
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private volatile boolean cancelled = false;
+
+    /**
+     * Cancel download from another thread. The connection is closed, so a
+     * running {@link #download()} fails soon after without retrying and
+     * keeps the {@code .part} file to be resumed later.
+     */
+    public void cancel() {
+        this.cancelled = true;
+        HttpURLConnection conn = this.conn;
+        if(conn!=null) {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Download file. Download is resumed from existing {@code .part} file
+     * with a {@code Range} request if server supports it and remote file
+     * has not changed since.
      * @return Downloaded             file
      * @throws IllegalStateException  When file has already been downloaded or file could not be created
      */
     public File download() {
         // check if can download
-        if(this.out==null||this.status.equals("init")) {
+        if(this.conn==null||this.status.equals("init")) {
             throw new IllegalStateException("Connection could not be created");
         }
-        if(this.conn==null||this.status.equals("finished")) {
+        if(this.status.equals("finished")) {
             throw new IllegalStateException("File "+this.fname+" has already been downloaded");
         }
-        // connect
+        // download
         this.status = "downloading";
+        for(int attempt = 1; ; attempt++) {
+            try {
+                transfer();
+                break;
+            } catch(IOException e) {
+                e.printStackTrace();
+                if(attempt>=MAX_ATTEMPTS || e instanceof FileNotFoundException || this.cancelled) {
+                    this.error = e;
+                    this.status = "failed";
+                    this.conn = null;
+                    stopProgressReporter();
+                    return this.file;
+                }
+                System.out.printf("文件 %s 下载中断, 正在重试 (%d/%d)\n", this.fname, attempt, MAX_ATTEMPTS-1);
+            }
+            try {
+                this.conn = setGetConnURL(this.url);
+            } catch(IOException e) {
+                e.printStackTrace();
+                this.error = e;
+                this.status = "failed";
+                this.conn = null;
+                stopProgressReporter();
+                return this.file;
+            }
+        }
+        this.conn = null;
+        stopProgressReporter();
+        this.sha256 = ArtifactCache.toHex(this.digest.digest());
+        // move to final name
         try {
-            conn.connect();
+            try {
+                Files.move(this.part.toPath(),this.file.toPath(),StandardCopyOption.ATOMIC_MOVE);
+            } catch(AtomicMoveNotSupportedException e) {
+                Files.move(this.part.toPath(),this.file.toPath(),StandardCopyOption.REPLACE_EXISTING);
+            }
         } catch(IOException e) {
             e.printStackTrace();
+            this.error = e;
             this.status = "failed";
             return this.file;
         }
+        validatorFile().delete();
+        System.out.println("文件 "+this.fname+" 下载完毕");
+        this.status = "finished";
+        return this.file;
+    }
+
+    /**
+     * Transfer remaining bytes from connection to {@code .part} file.
+     * @throws IOException  if an I/O error occurs or connection closed early.
+     */
+    private void transfer() throws IOException {
+        if(this.cancelled) {
+            throw new InterruptedIOException("Download of "+this.fname+" cancelled");
+        }
+        // resume, only if remote file can be checked to be the same
+        long offset = this.part.isFile() ? this.part.length() : 0;
+        String validator = offset>0 ? readValidator() : null;
+        if(offset>0 && validator==null) {
+            offset = 0;
+        }
+        if(offset>0) {
+            this.conn.setRequestProperty("Range","bytes="+offset+"-");
+            this.conn.setRequestProperty("If-Range",validator);
+        }
+        // connect
+        this.conn.connect();
+        int code = this.conn.getResponseCode();
+        if(code==416) {
+            // part file is not a prefix of remote file
+            this.part.delete();
+            validatorFile().delete();
+            throw new IOException("Range not satisfiable for "+this.fname+", restarting");
+        }
+        if(code>=400 && code<500) {
+            throw new FileNotFoundException(this.url+" (HTTP "+code+")");
+        }
+        String range = this.conn.getHeaderField("Content-Range");
+        boolean append = offset>0 && code==206 && range!=null && range.startsWith("bytes "+offset+"-");
+        this.digest = ArtifactCache.newDigest();
+        if(append) {
+            System.out.println("Resume from: " + offset);
+            ArtifactCache.updateDigest(this.digest,this.part);
+        } else {
+            // remote file changed, server ignored range, or nothing to resume
+            offset = 0;
+            writeValidator();
+        }
         // file length
-        this.length = this.conn.getContentLengthLong();
+        long contentLength = this.conn.getContentLengthLong();
+        this.length = contentLength<0 ? -1 : offset+contentLength;
+        this.progress = offset;
         System.out.println("File length: " + length);
         // download
-        InputStream in = null;
-        try {
-            in = new BufferedInputStream(conn.getInputStream());
+        try(InputStream in = new BufferedInputStream(this.conn.getInputStream())) {
             // content type
-            this.contentType = HttpURLConnection.guessContentTypeFromStream(in);
-            if(this.contentType==null) {
-                this.contentType = conn.getContentType();
+            if(!append) {
+                this.contentType = HttpURLConnection.guessContentTypeFromStream(in);
+                if(this.contentType==null) {
+                    this.contentType = this.conn.getContentType();
+                }
+                System.out.println("File type: "+this.contentType);
+            }
+            this.out = new FileOutputStream(this.part,append);
+            if(this.progressReport && !this.progressReporter.isAlive()
+               && this.progressReporter.getState()==Thread.State.NEW) {
+                this.progressReporter.start();
             }
-            System.out.println("File type: "+this.contentType);
-            // download
             int bufferSize = 0;
-            byte[] buffer = new byte[1024];
-            this.progressReporter.start();
-            while((bufferSize=in.read(buffer,0,1024))!=-1) {
+            byte[] buffer = new byte[8192];
+            while((bufferSize=in.read(buffer))!=-1) {
+                if(this.cancelled) {
+                    throw new InterruptedIOException("Download of "+this.fname+" cancelled");
+                }
                 this.out.write(buffer,0,bufferSize);
+                this.digest.update(buffer,0,bufferSize);
                 this.progress+=bufferSize;
             }
-            try {
-                this.progressReporter.join();
-            } catch(InterruptedException e) {}
-            System.out.println("文件 "+this.fname+" 下载完毕");
-            this.status = "finished";
-        } catch(IOException e) {
-            e.printStackTrace();
-            this.status = "failed";
         } finally {
-            try {
+            if(this.out!=null) {
                 this.out.close();
-            } catch(IOException e) {
-                e.printStackTrace();
             }
+        }
+        if(this.length>=0 && this.progress<this.length) {
+            throw new EOFException("Connection closed at "+this.progress+" of "+this.length+" bytes");
+        }
+    }
+
+    private File validatorFile() {
+        return new File(this.part.getPath()+VALIDATOR_SUFFIX);
+    }
+
+    private String readValidator() {
+        File file = validatorFile();
+        if(!file.isFile()) {
+            return null;
+        }
+        try {
+            String validator = new String(Files.readAllBytes(file.toPath()),StandardCharsets.UTF_8).trim();
+            return validator.isEmpty() ? null : validator;
+        } catch(IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Keep validator of response, a strong {@code ETag} or else
+     * {@code Last-Modified}. Weak tags cannot be used with {@code If-Range}.
+     */
+    private void writeValidator() throws IOException {
+        String validator = this.conn.getHeaderField("ETag");
+        if(validator==null || validator.startsWith("W/")) {
+            validator = this.conn.getHeaderField("Last-Modified");
+        }
+        File file = validatorFile();
+        if(validator==null) {
+            file.delete();
+        } else {
+            Files.write(file.toPath(),validator.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void stopProgressReporter() {
+        if(this.progressReporter.isAlive()) {
+            this.progressReporter.interrupt();
             try {
-                if(in!=null) {
-                    in.close();
-                }
-            } catch(IOException e) {
-                e.printStackTrace();
+                this.progressReporter.join();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-            this.conn = null;
         }
-        return this.file;
     }
 
     private Thread progressReporter = new Thread(() -> {
@@ -213,7 +421,9 @@ public class Downloader {
             System.out.printf("Download progress: %d/%d (%d%s)\n", this.progress, this.length, this.progress*100L/this.length, "%");
             try {
                 Thread.sleep(1000L);
-            } catch(InterruptedException e) {}
+            } catch(InterruptedException e) {
+                return;
+            }
         }
     },  "DownloadProgressReporter-"+this.fname);
     
@@ -0,0 +1,1038 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * Writes {@code JAR} archives in current JVM. Entries are compressed in
+ * parallel on a {@link ForkJoinPool} and written to the archive in the
+ * order they were added.
+ * <p>
+ * {@link java.util.zip.ZipOutputStream} can only deflate entries itself on
+ * the calling thread, so the ZIP records are written here directly. This
+ * also allows entries of libraries to be copied into a fat JAR with their
+ * compressed data as is.
+ */
+public class JarWriter {
+
+    /**
+     * Entry to be written.
+     */
+    static class Entry {
+        final String name;
+        final long time;
+        final File file;
+        final byte[] data;
+        // filled by compression
+        int method;
+        long crc;
+        long size;
+        long csize;
+        byte[] compressed;
+        // filled when written
+        long offset;
+        // library entry copied as is
+        Previous source;
+        Previous.Record record;
+
+        Entry(String name, long time, File file, byte[] data) {
+            this.name = name;
+            this.time = time;
+            this.file = file;
+            this.data = data;
+        }
+
+        Entry(String name, Previous source, Previous.Record record) {
+            this(name,record.time,null,null);
+            this.source = source;
+            this.record = record;
+            this.method = record.method;
+            this.crc = record.crc;
+            this.size = record.size;
+            this.csize = record.csize;
+        }
+
+        boolean isDirectory() {
+            return this.name.endsWith("/");
+        }
+    }
+
+    private final File jar;
+    private final Path jarPath;
+    private final List<Entry> entries = new ArrayList<>();
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    private long totalSize = 0;
+    private long totalCompressed = 0;
+
+    public JarWriter(File jar) {
+        if(jar==null) {
+            throw new NullPointerException("jar");
+        }
+        this.jar = jar;
+        this.jarPath = jar.getAbsoluteFile().toPath().normalize();
+    }
+
+    /**
+     * Packaging profile, trading archive size for packaging time.
+     */
+    public enum Profile {
+        /** Fast compression for development builds. */
+        DEV(Deflater.BEST_SPEED),
+        /** Same compression as command {@code jar}. */
+        DEFAULT(Deflater.DEFAULT_COMPRESSION),
+        /** Best compression for release builds. */
+        RELEASE(Deflater.BEST_COMPRESSION);
+
+        final int level;
+
+        Profile(int level) {
+            this.level = level;
+        }
+    }
+
+    /**
+     * Extensions of files which are compressed already and stored as is.
+     */
+    static final Set<String> COMPRESSED = new HashSet<>(Arrays.asList(
+        "png","jpg","jpeg","gif","webp","ico",
+        "jar","war","ear","zip","gz","tgz","bz2","xz","7z","zst",
+        "mp3","mp4","ogg","oga","ogv","webm","flac","m4a",
+        "woff","woff2"
+    ));
+
+    /**
+     * Entries whose deflated size exceeds this share of their size are
+     * stored instead, as inflating them would cost more than it saves.
+     */
+    static final double MAX_RATIO = 0.95;
+
+    /**
+     * Set packaging profile.
+     * @param profile  profile
+     */
+    public void setProfile(Profile profile) {
+        this.level = profile.level;
+    }
+
+    /**
+     * Set deflate level of entries.
+     * @param level  level from {@code 0} to {@code 9}
+     */
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    /**
+     * Add manifest. Missing {@code Manifest-Version} and {@code Created-By}
+     * attributes are filled in as command {@code jar} does.
+     * @param manifest  manifest file, or {@code null} for a default manifest
+     * @throws IOException  if an I/O error occurs.
+     */
+    public void addManifest(File manifest) throws IOException {
+        Manifest mf = new Manifest();
+        if(manifest!=null && manifest.isFile()) {
+            try(InputStream in = new FileInputStream(manifest)) {
+                mf.read(in);
+            }
+        }
+        Attributes attrs = mf.getMainAttributes();
+        if(attrs.getValue(Attributes.Name.MANIFEST_VERSION)==null) {
+            attrs.put(Attributes.Name.MANIFEST_VERSION,"1.0");
+        }
+        if(attrs.getValue("Created-By")==null) {
+            attrs.putValue("Created-By",String.format("Psb4j/%s (Java %s)",Main.VERSION,System.getProperty("java.version")));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mf.write(out);
+        long now = System.currentTimeMillis();
+        this.entries.add(new Entry("META-INF/",now,null,null));
+        this.entries.add(new Entry(JarFile.MANIFEST_NAME,now,null,out.toByteArray()));
+    }
+
+    /**
+     * Add all files in directory, in name order.
+     * @param dir      root directory
+     * @param exclude  names of top level files not to be added
+     */
+    public void addDirectory(File dir, String... exclude) {
+        File[] ls = dir.listFiles();
+        if(ls==null) {
+            return;
+        }
+        Arrays.sort(ls);
+        List<String> excluded = Arrays.asList(exclude);
+        for(File file : ls) {
+            if(excluded.contains(file.getName())) {
+                continue;
+            }
+            addFile(file, file.getName());
+        }
+    }
+
+    /**
+     * Add file, or directory with all files in it, in name order.
+     * @param file  file or directory
+     * @param name  entry name of file
+     */
+    public void addFile(File file, String name) {
+        if(file.getAbsoluteFile().toPath().normalize().equals(this.jarPath)) {
+            return;
+        }
+        if(file.isDirectory()) {
+            if(name.equals("META-INF")) {
+                // added with manifest
+                if(this.entries.isEmpty() || !this.entries.get(0).name.equals("META-INF/")) {
+                    this.entries.add(new Entry("META-INF/",file.lastModified(),null,null));
+                }
+            } else {
+                this.entries.add(new Entry(name+"/",file.lastModified(),null,null));
+            }
+            File[] ls = file.listFiles();
+            if(ls==null) {
+                return;
+            }
+            Arrays.sort(ls);
+            for(File f : ls) {
+                addFile(f, name+"/"+f.getName());
+            }
+        } else if(file.isFile()) {
+            if(name.equalsIgnoreCase(JarFile.MANIFEST_NAME) && hasEntry(JarFile.MANIFEST_NAME)) {
+                System.err.println("Ignoring duplicate manifest "+file.getPath());
+                return;
+            }
+            this.entries.add(new Entry(name,file.lastModified(),file,null));
+        }
+    }
+
+    /**
+     * Add entry with given content.
+     * @param name  entry name, ending with {@code /} for directory
+     * @param time  modification time
+     * @param data  content, {@code null} for directory
+     */
+    public void addData(String name, long time, byte[] data) {
+        if(name.equalsIgnoreCase(JarFile.MANIFEST_NAME) && hasEntry(JarFile.MANIFEST_NAME)) {
+            System.err.println("Ignoring duplicate manifest "+name);
+            return;
+        }
+        this.entries.add(new Entry(name,time,null,data));
+    }
+
+    private boolean hasEntry(String name) {
+        for(Entry entry : this.entries) {
+            if(entry.name.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get number of added entries.
+     * @return number of entries
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * What to do with an entry of a library whose name is taken by an entry
+     * added before.
+     */
+    public enum Duplicates {
+        /** Keep the entry added first. */
+        FIRST,
+        /** Keep the entry added first and report the others. */
+        WARN,
+        /** Fail writing. */
+        FAIL
+    }
+
+    private final List<File> libraries = new ArrayList<>();
+    private Duplicates duplicates = Duplicates.WARN;
+    private int copied = 0;
+
+    /**
+     * Add all entries of a library to be written after the added entries,
+     * making a fat JAR. Compressed data of entries is copied without being
+     * inflated, except {@code META-INF/services} files which are merged.
+     * Manifests, signatures and {@code module-info.class} of libraries are
+     * left out.
+     * @param library  JAR or ZIP archive
+     */
+    public void addLibrary(File library) {
+        this.libraries.add(library);
+    }
+
+    /**
+     * Set what to do with duplicate entries of libraries. Directories and
+     * service files are never duplicates.
+     * @param duplicates  policy, {@link Duplicates#WARN} by default
+     */
+    public void setDuplicates(Duplicates duplicates) {
+        this.duplicates = duplicates;
+    }
+
+    private boolean incremental = false;
+    private Previous previous = null;
+    private final AtomicInteger reused = new AtomicInteger();
+
+    /**
+     * Reuse compressed data of entries whose content has not changed since
+     * the JAR was last written, instead of compressing them again. Content
+     * is compared by size and CRC-32, and only JARs written by this class
+     * with the same settings are reused from.
+     * @param incremental  whether to reuse compressed data
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Comment of archive, recording settings that compressed data depends on.
+     */
+    private String comment() {
+        return "Psb4j level="+this.level+" stored="+MAX_RATIO;
+    }
+
+    /**
+     * Compress and write all entries. The archive is written to a temporary
+     * file first and moved to its final path once complete.
+     * @throws IOException  if an I/O error occurs.
+     */
+    public void write() throws IOException {
+        File tmp = new File(this.jar.getPath()+".tmp");
+        Downloader.checkParentDir(this.jar.getAbsolutePath());
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        this.reused.set(0);
+        this.previous = this.incremental ? Previous.open(this.jar,comment()) : null;
+        List<Previous> sources = new ArrayList<>();
+        try(OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp),65536)) {
+            List<Entry> entries = this.libraries.isEmpty() ? this.entries : merge(sources);
+            ZipOut zip = new ZipOut(out);
+            // compress ahead of writer within a window to bound memory
+            int window = parallelism*4;
+            Deque<ForkJoinTask<Entry>> pending = new ArrayDeque<>();
+            int next = 0;
+            for(int i = 0; i < entries.size(); i++) {
+                while(next<entries.size() && next<i+window) {
+                    final Entry entry = entries.get(next++);
+                    pending.add(pool.submit(() -> compress(entry)));
+                }
+                Entry entry;
+                try {
+                    entry = pending.poll().join();
+                } catch(RuntimeException e) {
+                    if(e.getCause() instanceof IOException) {
+                        throw (IOException)e.getCause();
+                    }
+                    throw e;
+                }
+                zip.writeLocal(entry);
+                this.totalSize += entry.size;
+                this.totalCompressed += entry.csize;
+                entry.compressed = null;
+            }
+            zip.writeCentral(entries,comment());
+            Profiler.count("jar.entries",entries.size());
+            Profiler.count("jar.reused",this.reused.get());
+            Profiler.count("jar.copied",this.copied);
+            Profiler.count("jar.bytesIn",this.totalSize);
+            Profiler.count("jar.bytesOut",zip.getWritten());
+        } catch(IOException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        } finally {
+            pool.shutdownNow();
+            try {
+                // let compressing threads return their deflaters
+                pool.awaitTermination(10,TimeUnit.SECONDS);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Deflater deflater;
+            while((deflater=this.deflaters.poll())!=null) {
+                deflater.end();
+            }
+            if(this.previous!=null) {
+                this.previous.close();
+                this.previous = null;
+            }
+            for(Previous source : sources) {
+                source.close();
+            }
+        }
+        Files.move(tmp.toPath(),this.jar.toPath(),StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static final String SERVICES = "META-INF/services/";
+
+    /**
+     * Append entries of libraries to added entries. Only central directories
+     * of libraries are read here, their data is copied when written.
+     * @param sources  list to add opened libraries to, for them to be closed
+     * @return         All entries to be written.
+     * @throws IOException  if a library could not be read, or on a
+     *                      duplicate entry with {@link Duplicates#FAIL}.
+     */
+    private List<Entry> merge(List<Previous> sources) throws IOException {
+        List<Entry> merged = new ArrayList<>(this.entries.size());
+        Set<String> names = new HashSet<>();
+        Map<String,Set<String>> services = new TreeMap<>();
+        for(Entry entry : this.entries) {
+            names.add(entry.name);
+            if(isService(entry.name)) {
+                addProviders(services,entry.name,entry.data!=null ? entry.data : Files.readAllBytes(entry.file.toPath()));
+            } else {
+                merged.add(entry);
+            }
+        }
+        this.copied = 0;
+        for(File library : this.libraries) {
+            Previous source = Previous.open(library,null);
+            if(source==null) {
+                throw new IOException("Could not read library "+library);
+            }
+            sources.add(source);
+            int duplicated = 0;
+            String example = null;
+            for(Map.Entry<String,Previous.Record> e : source.records.entrySet()) {
+                String name = e.getKey();
+                if(isLeftOut(name)) {
+                    continue;
+                }
+                if(isService(name)) {
+                    addProviders(services,name,source.inflate(e.getValue()));
+                } else if(names.add(name)) {
+                    merged.add(new Entry(name,source,e.getValue()));
+                    this.copied++;
+                } else if(!name.endsWith("/")) {
+                    if(this.duplicates==Duplicates.FAIL) {
+                        throw new IOException("Duplicate entry "+name+" in "+library);
+                    }
+                    duplicated++;
+                    example = example==null ? name : example;
+                }
+            }
+            if(duplicated>0 && this.duplicates==Duplicates.WARN) {
+                System.err.printf("Ignoring %d duplicate entries of %s, e.g. %s\n", duplicated, library.getName(), example);
+            }
+        }
+        long now = System.currentTimeMillis();
+        for(Map.Entry<String,Set<String>> service : services.entrySet()) {
+            StringBuilder sb = new StringBuilder();
+            for(String provider : service.getValue()) {
+                sb.append(provider).append('\n');
+            }
+            merged.add(new Entry(service.getKey(),now,null,sb.toString().getBytes(StandardCharsets.UTF_8)));
+        }
+        return merged;
+    }
+
+    private static boolean isService(String name) {
+        return name.startsWith(SERVICES) && name.length()>SERVICES.length() && name.indexOf('/',SERVICES.length())<0;
+    }
+
+    private static void addProviders(Map<String,Set<String>> services, String name, byte[] data) {
+        Set<String> providers = services.get(name);
+        if(providers==null) {
+            providers = new LinkedHashSet<>();
+            services.put(name,providers);
+        }
+        for(String line : new String(data,StandardCharsets.UTF_8).split("\n")) {
+            int comment = line.indexOf('#');
+            line = (comment<0 ? line : line.substring(0,comment)).trim();
+            if(!line.isEmpty()) {
+                providers.add(line);
+            }
+        }
+    }
+
+    /**
+     * Whether an entry of a library is left out of fat JAR, as it describes
+     * the library itself rather than its content.
+     */
+    private static boolean isLeftOut(String name) {
+        if(name.equals("module-info.class") || (name.startsWith("META-INF/versions/") && name.endsWith("/module-info.class"))) {
+            return true;
+        }
+        if(!name.startsWith("META-INF/") || name.indexOf('/',9)>=0) {
+            return false;
+        }
+        String file = name.substring(9).toUpperCase(Locale.ROOT);
+        return file.equals("MANIFEST.MF") || file.equals("INDEX.LIST") || file.startsWith("SIG-")
+            || file.endsWith(".SF") || file.endsWith(".DSA") || file.endsWith(".RSA") || file.endsWith(".EC");
+    }
+
+    /**
+     * Deflaters of current write, shared by its compressing threads and
+     * ended once write completes so that their native memory is freed at
+     * once rather than on finalization.
+     */
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+
+    private Entry compress(Entry entry) {
+        if(entry.source!=null) {
+            // copied when written
+            return entry;
+        }
+        try {
+            byte[] data = entry.data;
+            if(entry.isDirectory()) {
+                data = new byte[0];
+            } else if(data==null) {
+                data = Files.readAllBytes(entry.file.toPath());
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data,0,data.length);
+            entry.crc = crc.getValue();
+            entry.size = data.length;
+            if(data.length>0 && this.previous!=null) {
+                Previous.Record old = this.previous.records.get(entry.name);
+                if(old!=null && old.size==entry.size && old.crc==entry.crc) {
+                    entry.method = old.method;
+                    entry.compressed = this.previous.read(old);
+                    entry.csize = entry.compressed.length;
+                    this.reused.incrementAndGet();
+                    return entry;
+                }
+            }
+            if(data.length==0 || this.level==0 || isCompressed(entry.name)) {
+                return stored(entry,data);
+            }
+            Deflater deflater = this.deflaters.poll();
+            if(deflater==null) {
+                deflater = new Deflater(this.level,true);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64,data.length/2));
+            try {
+                deflater.reset();
+                deflater.setLevel(this.level);
+                deflater.setInput(data);
+                deflater.finish();
+                byte[] buffer = new byte[8192];
+                while(!deflater.finished()) {
+                    int len = deflater.deflate(buffer);
+                    out.write(buffer,0,len);
+                }
+            } finally {
+                this.deflaters.offer(deflater);
+            }
+            if(out.size()>data.length*MAX_RATIO) {
+                Profiler.count("jar.storedByRatio",1);
+                return stored(entry,data);
+            }
+            entry.method = ZipOut.DEFLATED;
+            entry.compressed = out.toByteArray();
+            entry.csize = entry.compressed.length;
+            return entry;
+        } catch(IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        }
+    }
+
+    private static Entry stored(Entry entry, byte[] data) {
+        entry.method = ZipOut.STORED;
+        entry.compressed = data;
+        entry.csize = data.length;
+        return entry;
+    }
+
+    private static boolean isCompressed(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot>name.lastIndexOf('/') && COMPRESSED.contains(name.substring(dot+1).toLowerCase(Locale.ROOT));
+    }
+
+    private static final String DIVIDING_LINE = "------------------------------------------------\n";
+
+    /**
+     * Report writer status.
+     * @return Formatted writer status.
+     */
+    public String status() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("JAR Information: \n");
+        sb.append(DIVIDING_LINE);
+        sb.append("Path: ");
+        sb.append(this.jar.getPath());
+        sb.append('\n');
+        sb.append("Entries: ");
+        sb.append(this.entries.size());
+        sb.append('\n');
+        if(this.totalSize>0) {
+            sb.append(DIVIDING_LINE);
+            sb.append("Size: ");
+            sb.append(this.totalSize);
+            sb.append(" -> ");
+            sb.append(this.totalCompressed);
+            sb.append(String.format(" (deflated %d%%)\n",100-this.totalCompressed*100/this.totalSize));
+        }
+        if(this.copied>0) {
+            sb.append("Copied: ");
+            sb.append(this.copied);
+            sb.append(" entries of ");
+            sb.append(this.libraries.size());
+            sb.append(" libraries\n");
+        }
+        if(this.reused.get()>0) {
+            sb.append("Reused: ");
+            sb.append(this.reused.get());
+            sb.append(" unchanged entries\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Previously written archive or library, from which compressed data of
+     * entries is copied verbatim.
+     */
+    static class Previous implements Closeable {
+
+        /**
+         * Central directory record of an entry.
+         */
+        static class Record {
+            long time;
+            int method;
+            long crc;
+            long size;
+            long csize;
+            long offset;
+        }
+
+        final Map<String,Record> records = new LinkedHashMap<>();
+        private final FileChannel channel;
+
+        private Previous(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Open archive if it was written with given comment.
+         * @param jar      archive
+         * @param comment  expected comment, {@code null} for any archive
+         * @return         Archive, or {@code null} if missing, unreadable or
+         *                 written with other settings.
+         */
+        static Previous open(File jar, String comment) {
+            if(!jar.isFile()) {
+                return null;
+            }
+            Previous previous = null;
+            try {
+                previous = new Previous(FileChannel.open(jar.toPath(),StandardOpenOption.READ));
+                if(previous.readCentral(comment)) {
+                    return previous;
+                }
+            } catch(IOException | RuntimeException e) {
+                // not an archive we can reuse, write from scratch
+            }
+            if(previous!=null) {
+                previous.close();
+            }
+            return null;
+        }
+
+        private boolean readCentral(String comment) throws IOException {
+            long length = this.channel.size();
+            int tailLength = (int)Math.min(length,22+0xFFFF);
+            ByteBuffer tail = read(length-tailLength,tailLength);
+            // end of central directory
+            int end = -1;
+            for(int i = tailLength-22; i >= 0; i--) {
+                if(tail.getInt(i)==0x06054b50 && i+22+(tail.getShort(i+20)&0xFFFF)==tailLength) {
+                    end = i;
+                    break;
+                }
+            }
+            if(end<0) {
+                return false;
+            }
+            byte[] c = new byte[tail.getShort(end+20)&0xFFFF];
+            tail.position(end+22);
+            tail.get(c);
+            if(comment!=null && !comment.equals(new String(c,StandardCharsets.UTF_8))) {
+                return false;
+            }
+            long count = tail.getShort(end+10)&0xFFFF;
+            long size = tail.getInt(end+12)&0xFFFFFFFFL;
+            long start = tail.getInt(end+16)&0xFFFFFFFFL;
+            if(end>=20 && tail.getInt(end-20)==0x07064b50) {
+                ByteBuffer zip64 = read(tail.getLong(end-12),56);
+                count = zip64.getLong(32);
+                size = zip64.getLong(40);
+                start = zip64.getLong(48);
+            }
+            // central directory
+            ByteBuffer cd = read(start,(int)size);
+            for(long n = 0; n < count; n++) {
+                int pos = cd.position();
+                if(cd.getInt(pos)!=0x02014b50) {
+                    return false;
+                }
+                Record record = new Record();
+                record.method = cd.getShort(pos+10)&0xFFFF;
+                record.time = javaTime(cd.getInt(pos+12)&0xFFFFFFFFL);
+                record.crc = cd.getInt(pos+16)&0xFFFFFFFFL;
+                record.csize = cd.getInt(pos+20)&0xFFFFFFFFL;
+                record.size = cd.getInt(pos+24)&0xFFFFFFFFL;
+                int nameLength = cd.getShort(pos+28)&0xFFFF;
+                int extraLength = cd.getShort(pos+30)&0xFFFF;
+                int commentLength = cd.getShort(pos+32)&0xFFFF;
+                record.offset = cd.getInt(pos+42)&0xFFFFFFFFL;
+                byte[] name = new byte[nameLength];
+                cd.position(pos+46);
+                cd.get(name);
+                // zip64 extended information
+                int extra = pos+46+nameLength;
+                for(int i = extra; i+4 <= extra+extraLength; ) {
+                    int id = cd.getShort(i)&0xFFFF;
+                    int len = cd.getShort(i+2)&0xFFFF;
+                    if(id==0x0001) {
+                        int field = i+4;
+                        if(record.size==ZipOut.ZIP64_MAGIC) {
+                            record.size = cd.getLong(field);
+                            field += 8;
+                        }
+                        if(record.csize==ZipOut.ZIP64_MAGIC) {
+                            record.csize = cd.getLong(field);
+                            field += 8;
+                        }
+                        if(record.offset==ZipOut.ZIP64_MAGIC) {
+                            record.offset = cd.getLong(field);
+                        }
+                    }
+                    i += 4+len;
+                }
+                cd.position(pos+46+nameLength+extraLength+commentLength);
+                if(record.method==ZipOut.STORED || record.method==ZipOut.DEFLATED) {
+                    this.records.put(new String(name,StandardCharsets.UTF_8),record);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Read compressed data of entry.
+         * @param record  record of entry
+         * @return        Compressed data.
+         * @throws IOException  if an I/O error occurs.
+         */
+        byte[] read(Record record) throws IOException {
+            ByteBuffer local = read(record.offset,30);
+            if(local.getInt(0)!=0x04034b50) {
+                throw new IOException("Bad local header");
+            }
+            long data = record.offset+30+(local.getShort(26)&0xFFFF)+(local.getShort(28)&0xFFFF);
+            return read(data,(int)record.csize).array();
+        }
+
+        /**
+         * Read and inflate data of entry.
+         * @param record  record of entry
+         * @return        Data.
+         * @throws IOException  if an I/O error occurs or data is corrupt.
+         */
+        byte[] inflate(Record record) throws IOException {
+            byte[] compressed = read(record);
+            if(record.method==ZipOut.STORED) {
+                return compressed;
+            }
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(compressed);
+                byte[] data = new byte[(int)record.size];
+                int n = 0;
+                while(n<data.length && !inflater.finished()) {
+                    int len = inflater.inflate(data,n,data.length-n);
+                    if(len==0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new EOFException("Unexpected end of deflated data");
+                    }
+                    n += len;
+                }
+                return data;
+            } catch(DataFormatException e) {
+                throw new IOException(e);
+            } finally {
+                inflater.end();
+            }
+        }
+
+        /**
+         * Copy compressed data of entry to writer, a buffer at a time.
+         * @param record  record of entry
+         * @param zip     writer
+         * @throws IOException  if an I/O error occurs.
+         */
+        void transfer(Record record, ZipOut zip) throws IOException {
+            ByteBuffer local = read(record.offset,30);
+            if(local.getInt(0)!=0x04034b50) {
+                throw new IOException("Bad local header");
+            }
+            long position = record.offset+30+(local.getShort(26)&0xFFFF)+(local.getShort(28)&0xFFFF);
+            long end = position+record.csize;
+            ByteBuffer buffer = zip.buffer();
+            while(position<end) {
+                buffer.clear();
+                buffer.limit((int)Math.min(buffer.capacity(),end-position));
+                int len = this.channel.read(buffer,position);
+                if(len<0) {
+                    throw new EOFException();
+                }
+                zip.writeBytes(buffer.array(),0,len);
+                position += len;
+            }
+        }
+
+        private static long javaTime(long dosTime) {
+            Calendar c = Calendar.getInstance();
+            c.clear();
+            c.set((int)((dosTime >> 25) & 0x7F)+1980, (int)((dosTime >> 21) & 0x0F)-1, (int)((dosTime >> 16) & 0x1F),
+                  (int)((dosTime >> 11) & 0x1F), (int)((dosTime >> 5) & 0x3F), (int)((dosTime << 1) & 0x3E));
+            return c.getTimeInMillis();
+        }
+
+        private ByteBuffer read(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            while(buffer.hasRemaining()) {
+                if(this.channel.read(buffer,position+buffer.position())<0) {
+                    throw new EOFException();
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        @Override
+        public void close() {
+            try {
+                this.channel.close();
+            } catch(IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+    }
+
+    /**
+     * Low level writer of ZIP records.
+     */
+    static class ZipOut {
+
+        static final int STORED = 0;
+        static final int DEFLATED = 8;
+
+        static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+        private final OutputStream out;
+        private long written = 0;
+        private ByteBuffer buffer;
+
+        ZipOut(OutputStream out) {
+            this.out = out;
+        }
+
+        long getWritten() {
+            return this.written;
+        }
+
+        /**
+         * Get buffer for copying entries of libraries, reused across entries.
+         */
+        ByteBuffer buffer() {
+            if(this.buffer==null) {
+                this.buffer = ByteBuffer.allocate(65536);
+            }
+            return this.buffer;
+        }
+
+        void writeLocal(Entry entry) throws IOException {
+            byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+            entry.offset = this.written;
+            writeInt(0x04034b50L);
+            writeShort(entry.method==STORED ? 10 : 20);
+            writeShort(0x0800); // UTF-8 names
+            writeShort(entry.method);
+            writeInt(dosTime(entry.time));
+            writeInt(entry.crc);
+            writeInt(entry.csize);
+            writeInt(entry.size);
+            writeShort(name.length);
+            writeShort(0);
+            writeBytes(name,0,name.length);
+            if(entry.source!=null) {
+                entry.source.transfer(entry.record,this);
+            } else {
+                writeBytes(entry.compressed,0,entry.compressed.length);
+            }
+        }
+
+        void writeCentral(List<Entry> entries, String comment) throws IOException {
+            long start = this.written;
+            for(Entry entry : entries) {
+                byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+                boolean zip64 = entry.offset>=ZIP64_MAGIC;
+                writeInt(0x02014b50L);
+                writeShort(zip64 ? 45 : 20);
+                writeShort(zip64 ? 45 : (entry.method==STORED ? 10 : 20));
+                writeShort(0x0800);
+                writeShort(entry.method);
+                writeInt(dosTime(entry.time));
+                writeInt(entry.crc);
+                writeInt(entry.csize);
+                writeInt(entry.size);
+                writeShort(name.length);
+                writeShort(zip64 ? 12 : 0);
+                writeShort(0); // comment
+                writeShort(0); // disk
+                writeShort(0); // internal attributes
+                writeInt(0);   // external attributes
+                writeInt(zip64 ? ZIP64_MAGIC : entry.offset);
+                writeBytes(name,0,name.length);
+                if(zip64) {
+                    writeShort(0x0001);
+                    writeShort(8);
+                    writeLong(entry.offset);
+                }
+            }
+            long size = this.written-start;
+            int count = entries.size();
+            if(count>=0xFFFF || start>=ZIP64_MAGIC) {
+                long zip64End = this.written;
+                // zip64 end of central directory record
+                writeInt(0x06064b50L);
+                writeLong(44);
+                writeShort(45);
+                writeShort(45);
+                writeInt(0);
+                writeInt(0);
+                writeLong(count);
+                writeLong(count);
+                writeLong(size);
+                writeLong(start);
+                // zip64 end of central directory locator
+                writeInt(0x07064b50L);
+                writeInt(0);
+                writeLong(zip64End);
+                writeInt(1);
+            }
+            writeInt(0x06054b50L);
+            writeShort(0);
+            writeShort(0);
+            writeShort(Math.min(count,0xFFFF));
+            writeShort(Math.min(count,0xFFFF));
+            writeInt(Math.min(size,ZIP64_MAGIC));
+            writeInt(Math.min(start,ZIP64_MAGIC));
+            byte[] c = comment.getBytes(StandardCharsets.UTF_8);
+            writeShort(c.length);
+            writeBytes(c,0,c.length);
+        }
+
+        private static long dosTime(long time) {
+            Calendar c = Calendar.getInstance();
+            c.setTimeInMillis(time);
+            int year = c.get(Calendar.YEAR);
+            if(year<1980) {
+                return (1 << 21) | (1 << 16);
+            }
+            return ((long)(year-1980) << 25) | ((long)(c.get(Calendar.MONTH)+1) << 21)
+                 | ((long)c.get(Calendar.DAY_OF_MONTH) << 16) | ((long)c.get(Calendar.HOUR_OF_DAY) << 11)
+                 | ((long)c.get(Calendar.MINUTE) << 5) | ((long)c.get(Calendar.SECOND) >> 1);
+        }
+
+        private void writeShort(int v) throws IOException {
+            this.out.write(v & 0xFF);
+            this.out.write((v >>> 8) & 0xFF);
+            this.written += 2;
+        }
+
+        private void writeInt(long v) throws IOException {
+            this.out.write((int)(v & 0xFF));
+            this.out.write((int)((v >>> 8) & 0xFF));
+            this.out.write((int)((v >>> 16) & 0xFF));
+            this.out.write((int)((v >>> 24) & 0xFF));
+            this.written += 4;
+        }
+
+        private void writeLong(long v) throws IOException {
+            writeInt(v & 0xFFFFFFFFL);
+            writeInt(v >>> 32);
+        }
+
+        void writeBytes(byte[] b, int off, int len) throws IOException {
+            this.out.write(b,off,len);
+            this.written += len;
+        }
+
+    }
+
+}
@@ -25,8 +25,14 @@
 
 package tk.xhuoffice.psb4j;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 
 
@@ -47,25 +53,305 @@ public class Main {
      * @param args  command arguments
      */
     public static void main(String[] args) {
+        // keep enough idle connections per host for all download threads,
+        // only read before the first HTTP connection of the process
+        if(System.getProperty("http.maxConnections")==null) {
+            System.setProperty("http.maxConnections",String.valueOf(DownloadScheduler.DEFAULT_CONCURRENCY*2));
+        }
+        if(Arrays.asList(args).contains("--daemon")) {
+            try {
+                Daemon.serve();
+            } catch(IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+        System.exit(build(args,System.getProperty("user.dir")));
+    }
+
+    /**
+     * Run a build.
+     * @param args  command arguments
+     * @param cwd   directory which relative paths in arguments are resolved against
+     * @return      Exit code, {@code 0} if build succeeded.
+     */
+    public static int build(String[] args, String cwd) {
         long starttime = System.currentTimeMillis();
         // arguments
-        cmdargs(args);
-        // download libs
-        Builder.download(remote,System.getProperty("user.home")+"/.sessx/lib/");
-        // new Builder
+        reset(cwd);
+        if(!cmdargs(args)) {
+            return 0;
+        }
+        if(profile.length>0) {
+            Profiler.start();
+        }
+        try {
+            return build(starttime);
+        } finally {
+            if(profile.length>0) {
+                Profiler.stop();
+                writeProfile();
+            }
+        }
+    }
+
+    private static int build(long starttime) {
+        if(modules!=null) {
+            return buildModules(starttime);
+        }
+        // tasks
         Builder builder = new Builder(buildpath,sourcepath,pwd);
-        // javac
-        int javac = builder.javac();
-        // pack
-        if(javac==0) {
-            Builder.copyFile(resources, buildpath, false);
-            Builder.copyFile(extra,buildpath);
-            builder.jar(jarpath,manifest);
-            printDividingLine();
-            System.out.println("Done! ("+(System.currentTimeMillis()-starttime)+"ms)");
+        builder.setSourceFilter(includes,excludes);
+        builder.setInMemory(inMemory);
+        builder.setJarProfile(jarProfile);
+        builder.setParallel(parallelJavac);
+        builder.setFatJar(fatJar,duplicates);
+        BuildGraph graph = new BuildGraph();
+        graph.add("download", () -> {
+            List<File> libs = download(remote);
+            if(libs==null) {
+                return false;
+            }
+            builder.addLibraries(libs);
+            return true;
+        });
+        graph.add("javac", () -> builder.javac()==0, "download");
+        if(builder.isInMemory()) {
+            if(test) {
+                System.err.println("--test is not supported with --in-memory, skipping tests");
+            }
+            // resources are packed from where they are
+            graph.add("jar", () -> pack(builder)==0, "javac");
         } else {
+            graph.add("copy resources", () -> {
+                Builder.copyFile(resources, buildpath, false);
+                return true;
+            });
+            graph.add("copy extra", () -> {
+                Builder.copyFile(extra,buildpath);
+                return true;
+            });
+            graph.add("jar", () -> pack(builder)==0, "javac", "copy resources", "copy extra");
+            if(test) {
+                // tests run while JAR is written
+                graph.add("test", () -> builder.test(testSourcepath,testWorkers)==0, "javac", "copy resources");
+            }
+        }
+        boolean ok;
+        try {
+            ok = graph.await();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ok = false;
+        }
+        printDividingLine();
+        System.out.println((ok ? "Done! (" : "Failed! (")+(System.currentTimeMillis()-starttime)+"ms)");
+        int exitCode = ok ? 0 : 1;
+        // watch
+        if(watch) {
+            return watch(builder,graph.succeeded("javac"));
+        }
+        return exitCode;
+    }
+
+    /**
+     * Download remote libs and JARs of Maven dependencies. Dependencies are
+     * resolved only if lockfile is missing or was written for other
+     * dependencies, in which case lockfile is rewritten after download.
+     * @param urls  URLs of remote libs
+     * @return      Files of remote libs followed by those of dependencies,
+     *              {@code null} if failed.
+     */
+    private static List<File> download(String[] urls) {
+        String cache = System.getProperty("user.home")+"/.sessx/cache/";
+        if(dependencies.length==0) {
+            return Builder.download(urls,cache,downloadThreads);
+        }
+        MavenResolver resolver = new MavenResolver(repositories,cache+"maven",downloadThreads);
+        File lock = new File(lockfile);
+        List<String> all = new ArrayList<>(Arrays.asList(urls));
+        List<String> locked = resolver.readLock(lock,dependencies);
+        List<MavenResolver.Artifact> artifacts = new ArrayList<>();
+        if(locked!=null) {
+            System.out.println("Dependencies locked by "+lock.getName()+": "+locked.size());
+            all.addAll(locked);
+        } else {
+            Profiler.Span span = Profiler.begin("download","resolve");
+            try {
+                for(MavenResolver.Artifact artifact : resolver.resolve(dependencies)) {
+                    if(artifact.url!=null) {
+                        artifacts.add(artifact);
+                        all.add(artifact.url);
+                    }
+                }
+            } catch(IOException | IllegalArgumentException e) {
+                e.printStackTrace();
+                return null;
+            } finally {
+                span.close();
+            }
+            span.arg("artifacts",artifacts.size());
+            System.out.println("Resolved dependencies: "+artifacts.size());
+        }
+        List<File> libs = Builder.download(all.toArray(new String[0]),cache,downloadThreads);
+        if(libs!=null && locked==null) {
+            try {
+                resolver.writeLock(lock,dependencies,artifacts,libs.subList(urls.length,libs.size()));
+            } catch(IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return libs;
+    }
+
+    /**
+     * Pack JAR from build directory, or from memory if building in memory.
+     * @param builder  builder
+     * @return         Exit code.
+     */
+    private static int pack(Builder builder) {
+        if(builder.isInMemory()) {
+            return builder.jarInMemory(jarpath,manifest,resources,extra);
+        }
+        return builder.jar(jarpath,manifest);
+    }
+
+    /**
+     * Build modules described by {@code --modules}.
+     * @param starttime  start time of build
+     * @return           Exit code.
+     */
+    private static int buildModules(long starttime) {
+        if(watch) {
+            System.err.println("--watch is not supported with --modules, building once");
+        }
+        if(fatJar) {
+            System.err.println("--fat-jar is not supported with --modules, ignoring");
+        }
+        if(test) {
+            System.err.println("--test is not supported with --modules, skipping tests");
+        }
+        Map<String,Module> described;
+        try {
+            described = Module.load(new File(modules));
+        } catch(IOException | IllegalArgumentException e) {
+            e.printStackTrace();
             printDividingLine();
             System.out.println("Failed! ("+(System.currentTimeMillis()-starttime)+"ms)");
+            return 1;
+        }
+        // download libs of all modules at once
+        List<String> urls = new ArrayList<>(Arrays.asList(remote));
+        for(Module module : described.values()) {
+            for(String url : module.remote) {
+                if(!urls.contains(url)) {
+                    urls.add(url);
+                }
+            }
+        }
+        List<File> libs;
+        Profiler.Span downloadSpan = Profiler.phase("download");
+        try {
+            libs = download(urls.toArray(new String[0]));
+        } finally {
+            downloadSpan.close();
+        }
+        if(libs==null) {
+            printDividingLine();
+            System.out.println("Failed! ("+(System.currentTimeMillis()-starttime)+"ms)");
+            return 1;
+        }
+        ModuleScheduler scheduler = new ModuleScheduler(described,pwd,Runtime.getRuntime().availableProcessors());
+        scheduler.setJarProfile(jarProfile);
+        for(Module module : described.values()) {
+            List<File> moduleLibs = new ArrayList<>(libs.subList(0,remote.length));
+            for(String url : module.remote) {
+                moduleLibs.add(libs.get(urls.indexOf(url)));
+            }
+            // maven dependencies are shared by all modules
+            moduleLibs.addAll(libs.subList(urls.size(),libs.size()));
+            scheduler.setLibraries(module.name,moduleLibs);
+        }
+        boolean ok;
+        try(Profiler.Span span = Profiler.phase("modules")) {
+            ok = scheduler.build();
+            span.arg("modules",described.size());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ok = false;
+        }
+        printDividingLine();
+        System.out.println((ok ? "Done! (" : "Failed! (")+(System.currentTimeMillis()-starttime)+"ms)");
+        return ok ? 0 : 1;
+    }
+
+    /**
+     * Write profile to files given by {@code --profile}.
+     */
+    private static void writeProfile() {
+        printDividingLine();
+        Profiler.print();
+        for(String spec : profile) {
+            int i = spec.indexOf(':');
+            String format = i<0 ? "trace" : spec.substring(0,i);
+            String file = i<0 ? spec : spec.substring(i+1);
+            try {
+                if(format.equals("summary")) {
+                    Profiler.writeSummary(new File(path(file)));
+                } else {
+                    Profiler.writeTrace(new File(path(file)));
+                }
+                System.out.printf("Profile written to %s\n", file);
+            } catch(IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Rebuild on changes of sources, resources and libraries until interrupted.
+     * Only the stages affected by a change are run.
+     * @param builder  builder of first build
+     * @param compiled whether first build compiled
+     * @return         Exit code.
+     */
+    private static int watch(Builder builder, boolean compiled) {
+        try(Watcher watcher = new Watcher()) {
+            watcher.register(Watcher.Kind.SOURCES,sourcepath);
+            for(String resource : resources) {
+                watcher.register(Watcher.Kind.RESOURCES,resource);
+            }
+            watcher.register(Watcher.Kind.LIBRARIES,System.getProperty("user.home")+"/.sessx/lib");
+            watcher.register(Watcher.Kind.LIBRARIES,pwd+"/lib");
+            while(true) {
+                printDividingLine();
+                System.out.println("Watching for changes...");
+                Set<Watcher.Kind> changes = watcher.poll();
+                long starttime = System.currentTimeMillis();
+                boolean pack = false;
+                if(!compiled || changes.contains(Watcher.Kind.SOURCES) || changes.contains(Watcher.Kind.LIBRARIES)) {
+                    compiled = builder.javac()==0;
+                    pack = true;
+                }
+                if(changes.contains(Watcher.Kind.RESOURCES)) {
+                    if(!builder.isInMemory()) {
+                        Builder.copyFile(resources, buildpath, false);
+                    }
+                    pack = true;
+                }
+                if(compiled && pack) {
+                    pack(builder);
+                }
+                printDividingLine();
+                System.out.println((compiled ? "Done! (" : "Failed! (")+(System.currentTimeMillis()-starttime)+"ms)");
+            }
+        } catch(IOException e) {
+            e.printStackTrace();
+            return 1;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return compiled ? 0 : 1;
         }
     }
 
@@ -84,10 +370,28 @@ public class Main {
             "    --pwd            Set work dirctory\n"+
             "    --build-dirctory Set output dirctory\n"+
             "    --sourcepath     Where to find .java code\n"+
+            "    --include        Glob patterns of sources to compile\n"+
+            "    --exclude        Glob patterns of sources not to compile\n"+
             "    --resources      Copy files in resources to JAR\n"+
-            "    --remote-lib     Remote library URL\n"+
+            "    --remote-lib     Remote library URL, append #sha256=<hex> to verify\n"+
+            "    --download-threads Max concurrent downloads\n"+
+            "    --dependency     Maven coordinates groupId:artifactId:version\n"+
+            "    --repository     Maven repository URLs, Maven Central by default\n"+
+            "    --lockfile       Lockfile of resolved dependencies, ./psb4j.lock by default\n"+
             "    --extra-packin   Extra files added to JAR\n"+
-            "    --clear          Remove files at output dirctory\n"
+            "    --clear          Remove files at output dirctory\n"+
+            "    --daemon         Run as build daemon for psb4j client\n"+
+            "    --watch          Rebuild when files change\n"+
+            "    --in-memory      Compile to memory and write nothing but JAR\n"+
+            "    --parallel-javac Compile independent packages in parallel\n"+
+            "    --jar-profile    JAR compression: dev, default or release\n"+
+            "    --fat-jar        Pack libraries into JAR\n"+
+            "    --test           Compile and run JUnit 4 tests after compiling\n"+
+            "    --test-sourcepath Where to find .java code of tests\n"+
+            "    --test-workers   Max number of JVMs running tests\n"+
+            "    --duplicates     Duplicate entries of libraries: first, warn or fail\n"+
+            "    --modules        Build modules described in given file\n"+
+            "    --profile        Write timings, e.g. trace:trace.json,summary:profile.json\n"
         );
     }
 
@@ -95,18 +399,90 @@ public class Main {
         System.out.print(DIVIDING_LINE);
     }
 
-    static String jarpath = "./build/build.jar";
-    static String manifest = "./manifest";
-    static String pwd = System.getProperty("user.dir");
-    static String buildpath = "./build";
-    static String sourcepath = "./src/java";
-    static String[] resources = {"./src/resources"};
-    static String[] remote = new String[0];
-    static String[] extra = new String[0];
+    static String cwd;
+    static String jarpath;
+    static String manifest;
+    static String pwd;
+    static String buildpath;
+    static String sourcepath;
+    static String[] resources;
+    static String[] remote;
+    static String[] dependencies;
+    static String[] repositories;
+    static String lockfile;
+    static String[] extra;
+    static int downloadThreads;
+    static boolean watch;
+    static String[] includes;
+    static String[] excludes;
+    static String[] profile;
+    static String modules;
+    static boolean inMemory;
+    static JarWriter.Profile jarProfile;
+    static boolean parallelJavac;
+    static boolean fatJar;
+    static boolean test;
+    static String testSourcepath;
+    static int testWorkers;
+    static JarWriter.Duplicates duplicates;
 
-    private static void cmdargs(String[] argv) {
-        if(argv==null || argv.length==0) {
-            return;
+    private static void reset(String dir) {
+        cwd = dir;
+        jarpath = "./build/build.jar";
+        manifest = "./manifest";
+        pwd = dir;
+        buildpath = "./build";
+        sourcepath = "./src/java";
+        resources = new String[]{"./src/resources"};
+        remote = new String[0];
+        dependencies = new String[0];
+        repositories = new String[]{MavenResolver.CENTRAL};
+        lockfile = "./psb4j.lock";
+        extra = new String[0];
+        downloadThreads = DownloadScheduler.DEFAULT_CONCURRENCY;
+        watch = false;
+        includes = new String[0];
+        excludes = new String[0];
+        profile = new String[0];
+        modules = null;
+        inMemory = false;
+        jarProfile = JarWriter.Profile.DEFAULT;
+        parallelJavac = false;
+        fatJar = false;
+        test = false;
+        testSourcepath = "./src/test/java";
+        testWorkers = Runtime.getRuntime().availableProcessors();
+        duplicates = JarWriter.Duplicates.WARN;
+    }
+
+    /**
+     * Resolve relative path against directory build was started in.
+     * @param path  path
+     * @return      Resolved path.
+     */
+    static String path(String path) {
+        if(new File(path).isAbsolute()) {
+            return path;
+        }
+        return new File(cwd,path).getPath();
+    }
+
+    private static String[] paths(String[] paths) {
+        String[] resolved = new String[paths.length];
+        for(int i = 0; i < paths.length; i++) {
+            resolved[i] = path(paths[i]);
+        }
+        return resolved;
+    }
+
+    /**
+     * Process command arguments.
+     * @param argv  command arguments
+     * @return      {@code false} if there is nothing to build.
+     */
+    private static boolean cmdargs(String[] argv) {
+        if(argv==null) {
+            argv = new String[0];
         }
         // to list
         List<String> args = new ArrayList<>();
@@ -118,13 +494,13 @@ public class Main {
         if((i=args.indexOf("--version"))>-1) {
             args.remove(i);
             printVersionInfo();
-            System.exit(0);
+            return false;
         }
         if((i=args.indexOf("--help"))>-1) {
             args.remove(i);
             printVersionInfo();
             printHelpInfo();
-            System.exit(0);
+            return false;
         }
         if((i=args.indexOf("--jar"))>-1) {
             args.remove(i);
@@ -151,6 +527,16 @@ public class Main {
             sourcepath = args.get(i);
             args.remove(i);
         }
+        if((i=args.indexOf("--include"))>-1) {
+            args.remove(i);
+            includes = args.get(i).split(",");
+            args.remove(i);
+        }
+        if((i=args.indexOf("--exclude"))>-1) {
+            args.remove(i);
+            excludes = args.get(i).split(",");
+            args.remove(i);
+        }
         if((i=args.indexOf("--resources"))>-1) {
             args.remove(i);
             resources = args.get(i).split(",");
@@ -161,15 +547,99 @@ public class Main {
             remote = args.get(i).split(",");
             args.remove(i);
         }
+        if((i=args.indexOf("--dependency"))>-1) {
+            args.remove(i);
+            dependencies = args.get(i).split(",");
+            args.remove(i);
+        }
+        if((i=args.indexOf("--repository"))>-1) {
+            args.remove(i);
+            repositories = args.get(i).split(",");
+            args.remove(i);
+        }
+        if((i=args.indexOf("--lockfile"))>-1) {
+            args.remove(i);
+            lockfile = args.get(i);
+            args.remove(i);
+        }
+        if((i=args.indexOf("--download-threads"))>-1) {
+            args.remove(i);
+            downloadThreads = Integer.parseInt(args.get(i));
+            args.remove(i);
+        }
         if((i=args.indexOf("--extra-packin"))>-1) {
             args.remove(i);
             extra = args.get(i).split(",");
             args.remove(i);
         }
+        if((i=args.indexOf("--profile"))>-1) {
+            args.remove(i);
+            profile = args.get(i).split(",");
+            args.remove(i);
+        }
+        if((i=args.indexOf("--modules"))>-1) {
+            args.remove(i);
+            modules = args.get(i);
+            args.remove(i);
+        }
+        if((i=args.indexOf("--jar-profile"))>-1) {
+            args.remove(i);
+            jarProfile = JarWriter.Profile.valueOf(args.get(i).toUpperCase(Locale.ROOT));
+            args.remove(i);
+        }
+        if((i=args.indexOf("--duplicates"))>-1) {
+            args.remove(i);
+            duplicates = JarWriter.Duplicates.valueOf(args.get(i).toUpperCase(Locale.ROOT));
+            args.remove(i);
+        }
+        if((i=args.indexOf("--test-sourcepath"))>-1) {
+            args.remove(i);
+            testSourcepath = args.get(i);
+            args.remove(i);
+        }
+        if((i=args.indexOf("--test-workers"))>-1) {
+            args.remove(i);
+            testWorkers = Integer.parseInt(args.get(i));
+            args.remove(i);
+        }
+        if((i=args.indexOf("--test"))>-1) {
+            args.remove(i);
+            test = true;
+        }
+        if((i=args.indexOf("--fat-jar"))>-1) {
+            args.remove(i);
+            fatJar = true;
+        }
+        if((i=args.indexOf("--parallel-javac"))>-1) {
+            args.remove(i);
+            parallelJavac = true;
+        }
+        if((i=args.indexOf("--in-memory"))>-1) {
+            args.remove(i);
+            inMemory = true;
+        }
+        if((i=args.indexOf("--watch"))>-1) {
+            args.remove(i);
+            watch = true;
+        }
+        // resolve
+        jarpath = path(jarpath);
+        manifest = path(manifest);
+        pwd = path(pwd);
+        buildpath = path(buildpath);
+        sourcepath = path(sourcepath);
+        testSourcepath = path(testSourcepath);
+        lockfile = path(lockfile);
+        resources = paths(resources);
+        extra = paths(extra);
+        if(modules!=null) {
+            modules = path(modules);
+        }
         if((i=args.indexOf("--clear"))>-1) {
             args.remove(i);
             Builder.rm(buildpath);
         }
+        return true;
     }
 
 }
@@ -0,0 +1,669 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+
+/**
+ * Resolves dependencies declared as {@code groupId:artifactId:version}
+ * against Maven layout repositories into URLs of JARs, including
+ * transitive dependencies of {@code compile} and {@code runtime} scope.
+ * Conflicting versions are settled as Maven does: the nearest declaration
+ * wins, and the first one among declarations at the same depth.
+ * <p>
+ * POMs of every depth of the dependency graph, and their parents and
+ * imported BOMs, are fetched and parsed in parallel; fetched POMs other
+ * than snapshots are cached on disk. The resolved URLs can be recorded in a lockfile
+ * together with checksums, so that later builds skip resolution.
+ */
+public class MavenResolver {
+
+    public static final String CENTRAL = "https://repo1.maven.org/maven2/";
+
+    private final List<String> repositories = new ArrayList<>();
+    private final File cacheDir;
+    private final int threads;
+
+    /**
+     * @param repositories  repository URLs, {@code http(s):} or {@code file:}
+     * @param cacheDir      directory where fetched POMs are kept
+     * @param threads       max number of POMs fetched at the same time
+     */
+    public MavenResolver(String[] repositories, String cacheDir, int threads) {
+        for(String repository : repositories) {
+            this.repositories.add(repository.endsWith("/") ? repository : repository+"/");
+        }
+        this.cacheDir = new File(cacheDir);
+        this.threads = Math.max(1,threads);
+    }
+
+    /**
+     * Resolved artifact.
+     */
+    public static class Artifact {
+        public final String groupId;
+        public final String artifactId;
+        public final String version;
+        public final String classifier;
+        /** URL of JAR, or {@code null} if artifact has no JAR. */
+        public String url;
+
+        Artifact(String groupId, String artifactId, String version, String classifier) {
+            this.groupId = groupId;
+            this.artifactId = artifactId;
+            this.version = version;
+            this.classifier = classifier;
+        }
+
+        String key() {
+            return this.groupId+":"+this.artifactId+(this.classifier==null ? "" : ":"+this.classifier);
+        }
+
+        @Override
+        public String toString() {
+            return this.groupId+":"+this.artifactId+":"+this.version+(this.classifier==null ? "" : ":"+this.classifier);
+        }
+    }
+
+    /**
+     * Dependency declared in a POM.
+     */
+    static class Dependency {
+        String groupId;
+        String artifactId;
+        String version;
+        String type = "jar";
+        String classifier;
+        String scope;
+        boolean optional;
+        Set<String> exclusions = new HashSet<>();
+
+        Dependency copy() {
+            Dependency dep = new Dependency();
+            dep.groupId = this.groupId;
+            dep.artifactId = this.artifactId;
+            dep.version = this.version;
+            dep.type = this.type;
+            dep.classifier = this.classifier;
+            dep.scope = this.scope;
+            dep.optional = this.optional;
+            dep.exclusions.addAll(this.exclusions);
+            return dep;
+        }
+
+        String key() {
+            return this.groupId+":"+this.artifactId+":"+this.type+(this.classifier==null ? "" : ":"+this.classifier);
+        }
+    }
+
+    /**
+     * Project model, with parent, properties and imports applied once
+     * effective.
+     */
+    static class Pom {
+        String groupId;
+        String artifactId;
+        String version;
+        String packaging = "jar";
+        String repository;
+        String[] parent;
+        Map<String,String> properties = new LinkedHashMap<>();
+        List<Dependency> dependencies = new ArrayList<>();
+        Map<String,Dependency> managed = new LinkedHashMap<>();
+    }
+
+    private ExecutorService pool;
+    private final Map<String,CompletableFuture<Pom>> raw = new ConcurrentHashMap<>();
+    private final Map<String,CompletableFuture<Pom>> effective = new ConcurrentHashMap<>();
+
+    /**
+     * Resolve dependencies.
+     * @param coordinates  {@code groupId:artifactId:version} or
+     *                     {@code groupId:artifactId:version:classifier}
+     * @return             Artifacts, nearest first.
+     * @throws IOException  if a POM could not be fetched or parsed.
+     */
+    public List<Artifact> resolve(String[] coordinates) throws IOException {
+        List<Candidate> level = new ArrayList<>();
+        for(String coordinate : coordinates) {
+            String[] gav = coordinate.trim().split(":");
+            if(gav.length<3 || gav.length>4) {
+                throw new IllegalArgumentException("Bad coordinate "+coordinate+", expected groupId:artifactId:version");
+            }
+            Dependency dep = new Dependency();
+            dep.groupId = gav[0];
+            dep.artifactId = gav[1];
+            dep.version = gav[2];
+            dep.classifier = gav.length>3 ? gav[3] : null;
+            level.add(new Candidate(dep,new HashSet<String>()));
+        }
+        AtomicInteger count = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(this.threads, r -> {
+            Thread t = new Thread(r,"MavenResolver-"+count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        Map<String,Artifact> selected = new LinkedHashMap<>();
+        try {
+            while(!level.isEmpty()) {
+                // nearest wins, then first declared
+                List<Candidate> chosen = new ArrayList<>();
+                for(Candidate node : level) {
+                    Artifact artifact = new Artifact(node.dep.groupId,node.dep.artifactId,version(node.dep.version),node.dep.classifier);
+                    if(selected.containsKey(artifact.key())) {
+                        continue;
+                    }
+                    selected.put(artifact.key(),artifact);
+                    node.artifact = artifact;
+                    chosen.add(node);
+                }
+                // fetch whole level at once
+                for(Candidate node : chosen) {
+                    node.pom = effective(node.artifact.groupId,node.artifact.artifactId,node.artifact.version);
+                }
+                List<Candidate> next = new ArrayList<>();
+                for(Candidate node : chosen) {
+                    Pom pom = join(node.pom);
+                    if(!pom.packaging.equals("pom")) {
+                        node.artifact.url = pom.repository+path(node.artifact.groupId,node.artifact.artifactId,node.artifact.version)
+                                            +(node.artifact.classifier==null ? "" : "-"+node.artifact.classifier)+".jar";
+                    }
+                    for(Dependency dep : pom.dependencies) {
+                        if(dep.optional || !(dep.scope==null || dep.scope.equals("compile") || dep.scope.equals("runtime"))) {
+                            continue;
+                        }
+                        if(node.exclusions.contains(dep.groupId+":"+dep.artifactId) || node.exclusions.contains(dep.groupId+":*")
+                           || node.exclusions.contains("*:*")) {
+                            continue;
+                        }
+                        if(dep.version==null) {
+                            throw new IOException("No version of "+dep.groupId+":"+dep.artifactId+" in "+node.artifact);
+                        }
+                        Set<String> exclusions = new HashSet<>(node.exclusions);
+                        exclusions.addAll(dep.exclusions);
+                        next.add(new Candidate(dep,exclusions));
+                    }
+                }
+                level = next;
+            }
+        } finally {
+            this.pool.shutdownNow();
+        }
+        return new ArrayList<>(selected.values());
+    }
+
+    /**
+     * Node of dependency graph being resolved.
+     */
+    private static class Candidate {
+        final Dependency dep;
+        final Set<String> exclusions;
+        Artifact artifact;
+        CompletableFuture<Pom> pom;
+
+        Candidate(Dependency dep, Set<String> exclusions) {
+            this.dep = dep;
+            this.exclusions = exclusions;
+        }
+    }
+
+    private static Pom join(CompletableFuture<Pom> future) throws IOException {
+        try {
+            return future.join();
+        } catch(CompletionException e) {
+            Throwable cause = e.getCause();
+            while(cause instanceof CompletionException && cause.getCause()!=null) {
+                cause = cause.getCause();
+            }
+            if(cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Pick a version from a version or range. Only the bounds of ranges are
+     * looked at, since listing versions needs repository metadata.
+     */
+    private static String version(String spec) {
+        if(!spec.startsWith("[") && !spec.startsWith("(")) {
+            return spec;
+        }
+        String[] bounds = spec.substring(1,spec.length()-1).split(",",-1);
+        String version = bounds[0].trim().isEmpty() && bounds.length>1 ? bounds[1].trim() : bounds[0].trim();
+        System.err.println("Version range "+spec+" resolved to "+version);
+        return version;
+    }
+
+    private static String path(String groupId, String artifactId, String version) {
+        return groupId.replace('.','/')+"/"+artifactId+"/"+version+"/"+artifactId+"-"+version;
+    }
+
+    // ---- POM loading ----
+
+    private CompletableFuture<Pom> effective(String groupId, String artifactId, String version) {
+        String key = groupId+":"+artifactId+":"+version;
+        CompletableFuture<Pom> future = this.effective.get(key);
+        if(future!=null) {
+            return future;
+        }
+        future = raw(groupId,artifactId,version).thenCompose(pom -> {
+            CompletableFuture<Pom> parent = pom.parent==null ? CompletableFuture.completedFuture(null)
+                                                             : effective(pom.parent[0],pom.parent[1],pom.parent[2]);
+            return parent.thenApply(p -> inherit(p,pom));
+        }).thenCompose(this::imports);
+        CompletableFuture<Pom> existing = this.effective.putIfAbsent(key,future);
+        return existing!=null ? existing : future;
+    }
+
+    private CompletableFuture<Pom> raw(String groupId, String artifactId, String version) {
+        String key = groupId+":"+artifactId+":"+version;
+        return this.raw.computeIfAbsent(key, k -> CompletableFuture.supplyAsync(() -> {
+            try(Profiler.Span span = Profiler.begin("resolve","pom")) {
+                span.arg("artifact",k);
+                return fetch(path(groupId,artifactId,version)+".pom",!version.endsWith("-SNAPSHOT"));
+            } catch(IOException e) {
+                throw new CompletionException(e);
+            }
+        },this.pool));
+    }
+
+    /**
+     * Apply parent and interpolate properties.
+     */
+    private static Pom inherit(Pom parent, Pom pom) {
+        Pom result = new Pom();
+        result.artifactId = pom.artifactId;
+        result.groupId = pom.groupId!=null ? pom.groupId : (parent!=null ? parent.groupId : null);
+        result.version = pom.version!=null ? pom.version : (parent!=null ? parent.version : null);
+        result.packaging = pom.packaging;
+        result.repository = pom.repository;
+        if(parent!=null) {
+            result.properties.putAll(parent.properties);
+            for(Map.Entry<String,Dependency> managed : parent.managed.entrySet()) {
+                result.managed.put(managed.getKey(),managed.getValue().copy());
+            }
+            for(Dependency dep : parent.dependencies) {
+                result.dependencies.add(dep.copy());
+            }
+        }
+        result.properties.putAll(pom.properties);
+        result.properties.put("project.groupId",result.groupId);
+        result.properties.put("project.artifactId",result.artifactId);
+        result.properties.put("project.version",result.version);
+        result.properties.put("pom.groupId",result.groupId);
+        result.properties.put("pom.version",result.version);
+        result.properties.put("groupId",result.groupId);
+        result.properties.put("version",result.version);
+        if(parent!=null) {
+            result.properties.put("project.parent.groupId",parent.groupId);
+            result.properties.put("project.parent.version",parent.version);
+            result.properties.put("parent.version",parent.version);
+        }
+        for(Dependency dep : pom.managed.values()) {
+            interpolate(dep,result.properties);
+            result.managed.put(dep.key(),dep);
+        }
+        for(Dependency dep : pom.dependencies) {
+            interpolate(dep,result.properties);
+            result.dependencies.add(dep);
+        }
+        return result;
+    }
+
+    /**
+     * Merge imported BOMs into dependency management, then fill in managed
+     * versions and scopes.
+     */
+    private CompletableFuture<Pom> imports(Pom pom) {
+        List<CompletableFuture<Pom>> boms = new ArrayList<>();
+        for(Dependency dep : pom.managed.values()) {
+            if("import".equals(dep.scope) && "pom".equals(dep.type)) {
+                boms.add(effective(dep.groupId,dep.artifactId,dep.version));
+            }
+        }
+        return CompletableFuture.allOf(boms.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            for(CompletableFuture<Pom> bom : boms) {
+                for(Map.Entry<String,Dependency> managed : bom.join().managed.entrySet()) {
+                    if(!pom.managed.containsKey(managed.getKey())) {
+                        pom.managed.put(managed.getKey(),managed.getValue());
+                    }
+                }
+            }
+            for(Dependency dep : pom.dependencies) {
+                Dependency managed = pom.managed.get(dep.key());
+                if(managed!=null) {
+                    if(dep.version==null) {
+                        dep.version = managed.version;
+                    }
+                    if(dep.scope==null) {
+                        dep.scope = managed.scope;
+                    }
+                    if(dep.exclusions.isEmpty()) {
+                        dep.exclusions.addAll(managed.exclusions);
+                    }
+                }
+            }
+            return pom;
+        });
+    }
+
+    private static final Pattern PROPERTY = Pattern.compile("\\$\\{([^}]+)\\}");
+
+    private static void interpolate(Dependency dep, Map<String,String> properties) {
+        dep.groupId = interpolate(dep.groupId,properties);
+        dep.artifactId = interpolate(dep.artifactId,properties);
+        dep.version = interpolate(dep.version,properties);
+        dep.classifier = interpolate(dep.classifier,properties);
+        dep.type = interpolate(dep.type,properties);
+        dep.scope = interpolate(dep.scope,properties);
+    }
+
+    private static String interpolate(String value, Map<String,String> properties) {
+        for(int depth = 0; value!=null && value.contains("${") && depth < 10; depth++) {
+            Matcher m = PROPERTY.matcher(value);
+            StringBuffer sb = new StringBuffer();
+            while(m.find()) {
+                String replacement = properties.get(m.group(1));
+                m.appendReplacement(sb,Matcher.quoteReplacement(replacement!=null ? replacement : m.group()));
+            }
+            m.appendTail(sb);
+            if(sb.toString().equals(value)) {
+                break;
+            }
+            value = sb.toString();
+        }
+        return value;
+    }
+
+    /**
+     * Get POM from disk cache or first repository serving it. Snapshots may
+     * change remotely, so their POMs are always fetched and never cached.
+     * @param path   path of POM in repository
+     * @param cache  whether disk cache is used
+     */
+    private Pom fetch(String path, boolean cache) throws IOException {
+        IOException last = null;
+        for(String repository : this.repositories) {
+            File cached = new File(this.cacheDir,Long.toHexString(repository.hashCode()&0xFFFFFFFFL)+"/"+path);
+            byte[] data;
+            if(cache && cached.isFile()) {
+                data = Files.readAllBytes(cached.toPath());
+            } else {
+                try {
+                    data = read(new URI(repository+path).toURL());
+                } catch(URISyntaxException e) {
+                    throw new IOException(e);
+                } catch(IOException e) {
+                    // missing, unauthorized or failing, try next repository
+                    last = e;
+                    continue;
+                }
+                if(cache) {
+                    File tmp = new File(cached.getPath()+".tmp"+Thread.currentThread().getId());
+                    Files.createDirectories(cached.getParentFile().toPath());
+                    Files.write(tmp.toPath(),data);
+                    Files.move(tmp.toPath(),cached.toPath(),StandardCopyOption.REPLACE_EXISTING);
+                }
+                Profiler.count("resolve.fetched",1);
+            }
+            Pom pom = parse(data);
+            pom.repository = repository;
+            return pom;
+        }
+        throw last!=null ? last : new FileNotFoundException(path);
+    }
+
+    private static byte[] read(URL url) throws IOException {
+        if(url.getProtocol().equals("file")) {
+            File file;
+            try {
+                file = new File(url.toURI());
+            } catch(URISyntaxException e) {
+                throw new IOException(e);
+            }
+            if(!file.isFile()) {
+                throw new FileNotFoundException(url.toString());
+            }
+            return Files.readAllBytes(file.toPath());
+        }
+        HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+        conn.setConnectTimeout(5000);
+        conn.setReadTimeout(10000);
+        conn.setRequestProperty("User-Agent",Downloader.USER_AGENT);
+        int code = conn.getResponseCode();
+        if(code==404 || code==410) {
+            throw new FileNotFoundException(url.toString());
+        }
+        if(code!=200) {
+            throw new IOException("HTTP "+code+" from "+url);
+        }
+        try(InputStream in = conn.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int len;
+            while((len=in.read(buffer))!=-1) {
+                out.write(buffer,0,len);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static Pom parse(byte[] xml) throws IOException {
+        Document doc;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(false);
+            factory.setExpandEntityReferences(false);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl",true);
+            doc = factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+        } catch(ParserConfigurationException | SAXException e) {
+            throw new IOException("Bad POM: "+e.getMessage(),e);
+        }
+        Element project = doc.getDocumentElement();
+        Pom pom = new Pom();
+        pom.groupId = text(project,"groupId");
+        pom.artifactId = text(project,"artifactId");
+        pom.version = text(project,"version");
+        String packaging = text(project,"packaging");
+        if(packaging!=null) {
+            pom.packaging = packaging;
+        }
+        Element parent = child(project,"parent");
+        if(parent!=null) {
+            pom.parent = new String[]{text(parent,"groupId"),text(parent,"artifactId"),text(parent,"version")};
+        }
+        Element properties = child(project,"properties");
+        if(properties!=null) {
+            for(Element property : children(properties,null)) {
+                pom.properties.put(property.getTagName(),property.getTextContent().trim());
+            }
+        }
+        Element management = child(project,"dependencyManagement");
+        if(management!=null) {
+            for(Dependency dep : dependencies(child(management,"dependencies"))) {
+                pom.managed.put(dep.key(),dep);
+            }
+        }
+        pom.dependencies.addAll(dependencies(child(project,"dependencies")));
+        return pom;
+    }
+
+    private static List<Dependency> dependencies(Element parent) {
+        List<Dependency> deps = new ArrayList<>();
+        if(parent==null) {
+            return deps;
+        }
+        for(Element e : children(parent,"dependency")) {
+            Dependency dep = new Dependency();
+            dep.groupId = text(e,"groupId");
+            dep.artifactId = text(e,"artifactId");
+            dep.version = text(e,"version");
+            dep.classifier = text(e,"classifier");
+            dep.scope = text(e,"scope");
+            dep.optional = "true".equals(text(e,"optional"));
+            String type = text(e,"type");
+            if(type!=null) {
+                dep.type = type;
+            }
+            Element exclusions = child(e,"exclusions");
+            if(exclusions!=null) {
+                for(Element exclusion : children(exclusions,"exclusion")) {
+                    dep.exclusions.add(text(exclusion,"groupId")+":"+text(exclusion,"artifactId"));
+                }
+            }
+            deps.add(dep);
+        }
+        return deps;
+    }
+
+    private static List<Element> children(Element parent, String name) {
+        List<Element> list = new ArrayList<>();
+        NodeList nodes = parent.getChildNodes();
+        for(int i = 0; i < nodes.getLength(); i++) {
+            Node node = nodes.item(i);
+            if(node instanceof Element && (name==null || ((Element)node).getTagName().equals(name))) {
+                list.add((Element)node);
+            }
+        }
+        return list;
+    }
+
+    private static Element child(Element parent, String name) {
+        List<Element> list = children(parent,name);
+        return list.isEmpty() ? null : list.get(0);
+    }
+
+    private static String text(Element parent, String name) {
+        Element e = child(parent,name);
+        return e==null ? null : e.getTextContent().trim();
+    }
+
+    // ---- lockfile ----
+
+    private static final String LOCK_HEADER = "# psb4j lockfile, generated, do not edit";
+
+    /**
+     * Get key of declarations, changing whenever declared dependencies or
+     * repositories change.
+     */
+    private String lockKey(String[] coordinates) {
+        List<String> sorted = new ArrayList<>(Arrays.asList(coordinates));
+        Collections.sort(sorted);
+        return "key "+String.join(",",sorted)+" @ "+String.join(",",this.repositories);
+    }
+
+    /**
+     * Read URLs recorded in lockfile.
+     * @param lockfile     lockfile
+     * @param coordinates  declared dependencies
+     * @return             URLs with checksums, or {@code null} if lockfile
+     *                     is missing or was written for other declarations.
+     */
+    public List<String> readLock(File lockfile, String[] coordinates) {
+        if(!lockfile.isFile()) {
+            return null;
+        }
+        List<String> urls = new ArrayList<>();
+        try(BufferedReader in = new BufferedReader(new InputStreamReader(Files.newInputStream(lockfile.toPath()),StandardCharsets.UTF_8))) {
+            if(!LOCK_HEADER.equals(in.readLine()) || !lockKey(coordinates).equals(in.readLine())) {
+                return null;
+            }
+            String line;
+            while((line=in.readLine())!=null) {
+                String[] fields = line.trim().split(" ");
+                if(fields.length==2) {
+                    urls.add(fields[1]);
+                }
+            }
+        } catch(IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return urls;
+    }
+
+    /**
+     * Write lockfile.
+     * @param lockfile     lockfile
+     * @param coordinates  declared dependencies
+     * @param artifacts    resolved artifacts having JARs
+     * @param files        downloaded JARs, in order of artifacts
+     * @throws IOException  if an I/O error occurs.
+     */
+    public void writeLock(File lockfile, String[] coordinates, List<Artifact> artifacts, List<File> files) throws IOException {
+        File tmp = new File(lockfile.getPath()+".tmp");
+        try(Writer out = Files.newBufferedWriter(tmp.toPath(),StandardCharsets.UTF_8)) {
+            out.write(LOCK_HEADER+"\n");
+            out.write(lockKey(coordinates)+"\n");
+            for(int i = 0; i < artifacts.size(); i++) {
+                out.write(artifacts.get(i)+" "+artifacts.get(i).url+"#sha256="+ArtifactCache.sha256(files.get(i))+"\n");
+            }
+        }
+        Files.move(tmp.toPath(),lockfile.toPath(),StandardCopyOption.REPLACE_EXISTING);
+    }
+
+}
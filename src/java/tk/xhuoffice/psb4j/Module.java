@@ -0,0 +1,181 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+
+/**
+ * Module of a multi-module build. Modules are described in a properties
+ * file listing their names in {@code modules} and their options as
+ * {@code <name>.<option>}, where options are named as command arguments:
+ * <pre>
+ * modules = core,app
+ * app.depends = core
+ * app.manifest = app/manifest
+ * app.remote-lib = https://example.com/lib.jar
+ * </pre>
+ * Paths are relative to the directory of the description file. Defaults
+ * of module {@code name} are sources in {@code name/src/java}, resources in
+ * {@code name/src/resources}, manifest {@code name/manifest}, output in
+ * {@code build/name} and JAR {@code build/name.jar}.
+ */
+public class Module {
+
+    public final String name;
+    String sourcepath;
+    String[] resources;
+    String[] extra;
+    String buildpath;
+    String jarpath;
+    String manifest;
+    String[] includes;
+    String[] excludes;
+    String[] remote;
+    String[] depends;
+
+    private Module(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Read module descriptions.
+     * @param file  description file
+     * @return      Modules by name, in description order.
+     * @throws IOException  if an I/O error occurs.
+     * @throws IllegalArgumentException  if description is invalid.
+     */
+    public static Map<String,Module> load(File file) throws IOException {
+        Properties props = new Properties();
+        try(InputStream in = Files.newInputStream(file.toPath())) {
+            props.load(new InputStreamReader(in,StandardCharsets.UTF_8));
+        }
+        File base = file.getAbsoluteFile().getParentFile();
+        Map<String,Module> modules = new LinkedHashMap<>();
+        for(String name : list(props.getProperty("modules",""))) {
+            if(modules.containsKey(name)) {
+                throw new IllegalArgumentException("Duplicate module "+name);
+            }
+            Module module = new Module(name);
+            String dir = props.getProperty(name+".dir",name);
+            module.sourcepath = path(base,props.getProperty(name+".sourcepath",dir+"/src/java"));
+            module.resources = paths(base,props.getProperty(name+".resources",dir+"/src/resources"));
+            module.extra = paths(base,props.getProperty(name+".extra-packin",""));
+            module.buildpath = path(base,props.getProperty(name+".build-directory","build/"+name));
+            module.jarpath = path(base,props.getProperty(name+".jar","build/"+name+".jar"));
+            module.manifest = path(base,props.getProperty(name+".manifest",dir+"/manifest"));
+            module.includes = list(props.getProperty(name+".include",""));
+            module.excludes = list(props.getProperty(name+".exclude",""));
+            module.remote = list(props.getProperty(name+".remote-lib",""));
+            module.depends = list(props.getProperty(name+".depends",""));
+            modules.put(name,module);
+        }
+        if(modules.isEmpty()) {
+            throw new IllegalArgumentException("No modules in "+file);
+        }
+        for(Module module : modules.values()) {
+            for(String depend : module.depends) {
+                if(!modules.containsKey(depend)) {
+                    throw new IllegalArgumentException("Module "+module.name+" depends on unknown module "+depend);
+                }
+            }
+        }
+        checkCycles(modules);
+        return modules;
+    }
+
+    private static void checkCycles(Map<String,Module> modules) {
+        Map<String,Integer> state = new LinkedHashMap<>();
+        for(String name : modules.keySet()) {
+            visit(modules,name,state,new ArrayList<>());
+        }
+    }
+
+    private static void visit(Map<String,Module> modules, String name, Map<String,Integer> state, List<String> path) {
+        Integer s = state.get(name);
+        path.add(name);
+        if(s!=null && s==1) {
+            throw new IllegalArgumentException("Cyclic module dependency "+String.join(" -> ",path.subList(path.indexOf(name),path.size())));
+        }
+        if(s==null) {
+            state.put(name,1);
+            for(String depend : modules.get(name).depends) {
+                visit(modules,depend,state,path);
+            }
+            state.put(name,2);
+        }
+        path.remove(path.size()-1);
+    }
+
+    private static String[] list(String value) {
+        List<String> list = new ArrayList<>();
+        for(String item : value.split(",")) {
+            if(!item.trim().isEmpty()) {
+                list.add(item.trim());
+            }
+        }
+        return list.toArray(new String[0]);
+    }
+
+    private static String path(File base, String path) {
+        if(new File(path).isAbsolute()) {
+            return path;
+        }
+        return new File(base,path).getPath();
+    }
+
+    private static String[] paths(File base, String value) {
+        String[] paths = list(value);
+        for(int i = 0; i < paths.length; i++) {
+            paths[i] = path(base,paths[i]);
+        }
+        return paths;
+    }
+
+    /**
+     * Get names of modules this module depends on directly.
+     * @return Names of modules.
+     */
+    public String[] getDepends() {
+        return this.depends.clone();
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+}
@@ -0,0 +1,337 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Builds modules in dependency order. A module is started as soon as all
+ * modules it depends on are built, so independent modules are built in
+ * parallel. Every module goes through the same {@link BuildGraph} as a
+ * single-module build, with build directories of its upstream modules on
+ * classpath.
+ * <p>
+ * Console output of a module is buffered and printed once the module is
+ * done, so that output of modules built at the same time is not mixed up.
+ */
+public class ModuleScheduler {
+
+    private final Map<String,Module> modules;
+    private final String pwd;
+    private final int threads;
+    private final Map<String,List<File>> libraries = new HashMap<>();
+
+    /**
+     * @param modules  modules by name
+     * @param pwd      work directory, whose {@code lib} is shared by modules
+     * @param threads  max number of modules built at the same time
+     */
+    public ModuleScheduler(Map<String,Module> modules, String pwd, int threads) {
+        this.modules = modules;
+        this.pwd = pwd;
+        this.threads = Math.max(1,threads);
+    }
+
+    private JarWriter.Profile jarProfile = JarWriter.Profile.DEFAULT;
+
+    /**
+     * Set packaging profile of all module JARs.
+     * @param profile  profile
+     */
+    public void setJarProfile(JarWriter.Profile profile) {
+        this.jarProfile = profile;
+    }
+
+    /**
+     * Set libraries of a module, e.g. files from artifact cache.
+     * @param module     name of module
+     * @param libraries  library files
+     */
+    public void setLibraries(String module, List<File> libraries) {
+        this.libraries.put(module,libraries);
+    }
+
+    /**
+     * Build all modules. Modules depending on a failed module are skipped.
+     * @return  {@code true} if all modules were built.
+     * @throws InterruptedException  if interrupted while waiting for modules.
+     */
+    public boolean build() throws InterruptedException {
+        // dependency graph
+        Map<String,AtomicInteger> pending = new HashMap<>();
+        Map<String,List<String>> dependents = new HashMap<>();
+        for(Module module : this.modules.values()) {
+            pending.put(module.name,new AtomicInteger(module.depends.length));
+            dependents.put(module.name,new ArrayList<>());
+        }
+        for(Module module : this.modules.values()) {
+            for(String depend : module.depends) {
+                dependents.get(depend).add(module.name);
+            }
+        }
+        // schedule
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        ModuleOutput out = new ModuleOutput(stdout);
+        ModuleOutput err = new ModuleOutput(stderr);
+        System.setOut(printStream(out,"sun.stdout.encoding"));
+        System.setErr(printStream(err,"sun.stderr.encoding"));
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(this.threads,this.modules.size()), r -> {
+            Thread t = new Thread(r,"ModuleBuilder-"+count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        CompletionService<Module> done = new ExecutorCompletionService<>(pool);
+        Set<String> failed = new LinkedHashSet<>();
+        Set<String> skipped = new LinkedHashSet<>();
+        int running = 0;
+        try {
+            for(Module module : this.modules.values()) {
+                if(module.depends.length==0) {
+                    submit(done,module,out,err,failed);
+                    running++;
+                }
+            }
+            while(running>0) {
+                Module module;
+                try {
+                    module = done.take().get();
+                } catch(ExecutionException e) {
+                    // build() catches everything it can
+                    throw new IllegalStateException(e.getCause());
+                }
+                running--;
+                synchronized(failed) {
+                    if(failed.contains(module.name)) {
+                        skip(module.name,dependents,skipped);
+                        continue;
+                    }
+                }
+                for(String dependent : dependents.get(module.name)) {
+                    if(pending.get(dependent).decrementAndGet()==0 && !skipped.contains(dependent)) {
+                        submit(done,this.modules.get(dependent),out,err,failed);
+                        running++;
+                    }
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        if(!failed.isEmpty()) {
+            Main.printDividingLine();
+            System.out.println("Failed modules: "+String.join(", ",failed));
+            if(!skipped.isEmpty()) {
+                System.out.println("Skipped modules: "+String.join(", ",skipped));
+            }
+        }
+        return failed.isEmpty();
+    }
+
+    private void submit(CompletionService<Module> done, Module module, ModuleOutput out, ModuleOutput err, Set<String> failed) {
+        done.submit(() -> {
+            out.begin();
+            err.begin();
+            long starttime = System.currentTimeMillis();
+            boolean ok = false;
+            try(Profiler.Span span = Profiler.begin("module",module.name)) {
+                ok = build(module);
+                span.arg("ok",ok);
+            } catch(RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                if(!ok) {
+                    synchronized(failed) {
+                        failed.add(module.name);
+                    }
+                }
+                String title = String.format("Module %s %s (%dms)", module.name, ok ? "done" : "failed", System.currentTimeMillis()-starttime);
+                synchronized(ModuleScheduler.class) {
+                    out.end(title);
+                    err.end(null);
+                }
+            }
+            return module;
+        });
+    }
+
+    /**
+     * Create a print stream encoding text as the console stream does.
+     */
+    private static PrintStream printStream(OutputStream out, String encodingProperty) {
+        String encoding = System.getProperty(encodingProperty);
+        if(encoding!=null) {
+            try {
+                return new PrintStream(out,true,encoding);
+            } catch(UnsupportedEncodingException e) {
+                // use default
+            }
+        }
+        return new PrintStream(out,true);
+    }
+
+    private static void skip(String name, Map<String,List<String>> dependents, Set<String> skipped) {
+        for(String dependent : dependents.get(name)) {
+            if(skipped.add(dependent)) {
+                skip(dependent,dependents,skipped);
+            }
+        }
+    }
+
+    /**
+     * Build one module through the stages of {@link Builder}.
+     * @param module  module
+     * @return        {@code true} if module was built.
+     */
+    private boolean build(Module module) {
+        Builder builder = new Builder(module.buildpath,module.sourcepath,this.pwd);
+        List<File> libs = this.libraries.get(module.name);
+        builder.addLibraries(libs==null ? Collections.<File>emptyList() : libs);
+        List<File> upstream = new ArrayList<>();
+        for(String name : upstream(module)) {
+            upstream.add(new File(this.modules.get(name).buildpath));
+        }
+        builder.addModules(upstream);
+        builder.setSourceFilter(module.includes,module.excludes);
+        builder.setJarProfile(this.jarProfile);
+        BuildGraph graph = new BuildGraph();
+        graph.add("copy resources", () -> {
+            Builder.copyFile(module.resources,module.buildpath,false);
+            return true;
+        });
+        graph.add("copy extra", () -> {
+            Builder.copyFile(module.extra,module.buildpath);
+            return true;
+        });
+        graph.add("javac", () -> builder.javac()==0);
+        graph.add("jar", () -> builder.jar(module.jarpath,module.manifest)==0, "javac", "copy resources", "copy extra");
+        try {
+            return graph.await();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Get modules a module depends on, directly or not.
+     * @param module  module
+     * @return        Names of modules, nearest first.
+     */
+    private Set<String> upstream(Module module) {
+        Set<String> upstream = new LinkedHashSet<>();
+        List<String> queue = new ArrayList<>(Arrays.asList(module.depends));
+        for(int i = 0; i < queue.size(); i++) {
+            String name = queue.get(i);
+            if(upstream.add(name)) {
+                queue.addAll(Arrays.asList(this.modules.get(name).depends));
+            }
+        }
+        return upstream;
+    }
+
+    /**
+     * Output stream buffering what threads of a module write, including
+     * threads they start, and passing everything else through.
+     */
+    private static class ModuleOutput extends OutputStream {
+
+        private final PrintStream target;
+        private final InheritableThreadLocal<ByteArrayOutputStream> buffer = new InheritableThreadLocal<>();
+
+        ModuleOutput(PrintStream target) {
+            this.target = target;
+        }
+
+        void begin() {
+            this.buffer.set(new ByteArrayOutputStream());
+        }
+
+        void end(String title) {
+            ByteArrayOutputStream buf = this.buffer.get();
+            this.buffer.remove();
+            if(title!=null) {
+                this.target.print("================================================\n");
+                this.target.println(title);
+            }
+            if(buf!=null) {
+                this.target.write(buf.toByteArray(),0,buf.size());
+            }
+            this.target.flush();
+        }
+
+        @Override
+        public void write(int b) {
+            ByteArrayOutputStream buf = this.buffer.get();
+            if(buf!=null) {
+                buf.write(b);
+            } else {
+                this.target.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ByteArrayOutputStream buf = this.buffer.get();
+            if(buf!=null) {
+                buf.write(b,off,len);
+            } else {
+                this.target.write(b,off,len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if(this.buffer.get()==null) {
+                this.target.flush();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,342 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Compiles sources on several compilers at the same time. Packages are
+ * linked by the qualified names and imports found in their sources, and
+ * strongly connected packages are merged into compile units. A unit is
+ * compiled once all units it depends on are compiled, with their classes
+ * found through classpath instead of source path.
+ * <p>
+ * Dependencies found this way may be incomplete, so callers should fall
+ * back to compiling all sources at once if any unit fails.
+ */
+public class ParallelCompiler {
+
+    private final String[] options;
+    private final int threads;
+
+    /**
+     * @param options  compiler options, output directory must be on
+     *                 classpath and source path should be empty
+     * @param threads  max number of compilers running at the same time
+     */
+    public ParallelCompiler(String[] options, int threads) {
+        this.options = options;
+        this.threads = Math.max(1,threads);
+    }
+
+    /**
+     * Compile unit.
+     */
+    static class Unit {
+        final Set<String> packages = new LinkedHashSet<>();
+        final List<String> sources = new ArrayList<>();
+        final Set<Unit> depends = new LinkedHashSet<>();
+    }
+
+    /**
+     * Compile sources.
+     * @param sources  source files
+     * @return         {@code true} if all units compiled.
+     */
+    public boolean compile(List<String> sources) {
+        List<Unit> units = units(sources);
+        Main.printDividingLine();
+        System.out.printf("并行编译: %d 个源文件, %d 个编译单元, %d 个线程\n", sources.size(), units.size(), Math.min(this.threads,units.size()));
+        Profiler.count("javac.units",units.size());
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(this.threads,units.size()), r -> {
+            Thread t = new Thread(r,"ParallelCompiler-"+count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicBoolean failed = new AtomicBoolean(false);
+        List<String> diagnostics = new ArrayList<>();
+        Map<Unit,CompletableFuture<Boolean>> futures = new HashMap<>();
+        try {
+            // units are in dependency order
+            for(Unit unit : units) {
+                List<CompletableFuture<Boolean>> depends = new ArrayList<>();
+                for(Unit depend : unit.depends) {
+                    depends.add(futures.get(depend));
+                }
+                futures.put(unit,CompletableFuture.allOf(depends.toArray(new CompletableFuture<?>[0])).thenApplyAsync(v -> {
+                    for(CompletableFuture<Boolean> depend : depends) {
+                        if(!depend.join()) {
+                            return false;
+                        }
+                    }
+                    if(failed.get()) {
+                        return false;
+                    }
+                    boolean ok = compile(unit,diagnostics);
+                    if(!ok) {
+                        failed.set(true);
+                    }
+                    return ok;
+                },pool));
+            }
+            for(CompletableFuture<Boolean> future : futures.values()) {
+                future.join();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        if(failed.get()) {
+            return false;
+        }
+        for(String diagnostic : diagnostics) {
+            System.err.println(diagnostic);
+        }
+        return true;
+    }
+
+    private boolean compile(Unit unit, List<String> diagnostics) {
+        CompileEngine javac = new CompileEngine(this.options,unit.sources.toArray(new String[0]));
+        javac.setQuiet(true);
+        try(Profiler.Span span = Profiler.begin("javac","unit")) {
+            span.arg("packages",String.join(",",unit.packages)).arg("sources",unit.sources.size());
+            javac.run();
+        }
+        synchronized(diagnostics) {
+            diagnostics.addAll(javac.getDiagnostics());
+        }
+        return javac.getExitCode()==0;
+    }
+
+    private static final Pattern PACKAGE = Pattern.compile("\\bpackage\\s+([\\w$]+(?:\\s*\\.\\s*[\\w$]+)*)\\s*;");
+    private static final Pattern NAME = Pattern.compile("[A-Za-z_$][\\w$]*(?:\\s*\\.\\s*[A-Za-z_$][\\w$]*)+");
+
+    /**
+     * Partition sources into compile units.
+     * @param sources  source files
+     * @return         Units, every unit after units it depends on.
+     */
+    static List<Unit> units(List<String> sources) {
+        // package of every source
+        Map<String,List<String>> byPackage = new LinkedHashMap<>();
+        Map<String,String> code = new HashMap<>();
+        for(String source : sources) {
+            String text = strip(read(source));
+            Matcher m = PACKAGE.matcher(text);
+            String pkg = m.find() ? m.group(1).replaceAll("\\s","") : "";
+            byPackage.computeIfAbsent(pkg,k -> new ArrayList<>()).add(source);
+            code.put(source,text);
+        }
+        // package graph
+        Map<String,Set<String>> graph = new HashMap<>();
+        for(Map.Entry<String,List<String>> pkg : byPackage.entrySet()) {
+            Set<String> refs = new LinkedHashSet<>();
+            for(String source : pkg.getValue()) {
+                Matcher m = NAME.matcher(code.get(source));
+                while(m.find()) {
+                    String name = m.group().replaceAll("\\s","");
+                    // longest prefix naming a package of sources, whole name first
+                    // as wildcard imports name the package itself
+                    for(int i = name.length(); i > 0; i = name.lastIndexOf('.',i-1)) {
+                        String prefix = name.substring(0,i);
+                        if(byPackage.containsKey(prefix)) {
+                            if(!prefix.equals(pkg.getKey())) {
+                                refs.add(prefix);
+                            }
+                            break;
+                        }
+                    }
+                }
+            }
+            graph.put(pkg.getKey(),refs);
+        }
+        // strongly connected components, in reverse topological order
+        List<Unit> units = new Tarjan(graph).run(byPackage.keySet());
+        Map<String,Unit> unitOf = new HashMap<>();
+        for(Unit unit : units) {
+            for(String pkg : unit.packages) {
+                unitOf.put(pkg,unit);
+                unit.sources.addAll(byPackage.get(pkg));
+            }
+        }
+        for(Unit unit : units) {
+            for(String pkg : unit.packages) {
+                for(String ref : graph.get(pkg)) {
+                    if(unitOf.get(ref)!=unit) {
+                        unit.depends.add(unitOf.get(ref));
+                    }
+                }
+            }
+        }
+        return units;
+    }
+
+    private static String read(String source) {
+        try {
+            return new String(Files.readAllBytes(Paths.get(source)),StandardCharsets.UTF_8);
+        } catch(IOException e) {
+            // let compiler report it
+            return "";
+        }
+    }
+
+    /**
+     * Blank out comments, string and character literals.
+     * @param src  source code
+     * @return     Code.
+     */
+    static String strip(String src) {
+        StringBuilder sb = new StringBuilder(src.length());
+        int n = src.length();
+        for(int i = 0; i < n; i++) {
+            char c = src.charAt(i);
+            if(c=='/' && i+1<n && src.charAt(i+1)=='/') {
+                while(i<n && src.charAt(i)!='\n') {
+                    i++;
+                }
+                sb.append('\n');
+            } else if(c=='/' && i+1<n && src.charAt(i+1)=='*') {
+                int end = src.indexOf("*/",i+2);
+                i = end<0 ? n : end+1;
+                sb.append(' ');
+            } else if(c=='"' && src.startsWith("\"\"\"",i)) {
+                int end = i+3;
+                while(end<n && !src.startsWith("\"\"\"",end)) {
+                    end += src.charAt(end)=='\\' ? 2 : 1;
+                }
+                i = end+2;
+                sb.append("\"\"");
+            } else if(c=='"' || c=='\'') {
+                int end = i+1;
+                while(end<n && src.charAt(end)!=c && src.charAt(end)!='\n') {
+                    end += src.charAt(end)=='\\' ? 2 : 1;
+                }
+                i = end;
+                sb.append(c).append(c);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Iterative Tarjan's algorithm.
+     */
+    private static class Tarjan {
+
+        private final Map<String,Set<String>> graph;
+        private final Map<String,Integer> index = new HashMap<>();
+        private final Map<String,Integer> low = new HashMap<>();
+        private final Deque<String> stack = new ArrayDeque<>();
+        private final Set<String> onStack = new HashSet<>();
+        private final List<Unit> units = new ArrayList<>();
+        private int next = 0;
+
+        Tarjan(Map<String,Set<String>> graph) {
+            this.graph = graph;
+        }
+
+        List<Unit> run(Set<String> nodes) {
+            for(String node : nodes) {
+                if(!this.index.containsKey(node)) {
+                    visit(node);
+                }
+            }
+            // a component is completed after all components it reaches
+            return this.units;
+        }
+
+        private void visit(String root) {
+            Deque<Object[]> work = new ArrayDeque<>();
+            enter(root);
+            work.push(new Object[]{root,this.graph.get(root).iterator()});
+            while(!work.isEmpty()) {
+                Object[] frame = work.peek();
+                String node = (String)frame[0];
+                @SuppressWarnings("unchecked")
+                Iterator<String> it = (Iterator<String>)frame[1];
+                if(it.hasNext()) {
+                    String next = it.next();
+                    if(!this.index.containsKey(next)) {
+                        enter(next);
+                        work.push(new Object[]{next,this.graph.get(next).iterator()});
+                    } else if(this.onStack.contains(next)) {
+                        this.low.put(node,Math.min(this.low.get(node),this.index.get(next)));
+                    }
+                    continue;
+                }
+                work.pop();
+                if(!work.isEmpty()) {
+                    String parent = (String)work.peek()[0];
+                    this.low.put(parent,Math.min(this.low.get(parent),this.low.get(node)));
+                }
+                if(this.low.get(node).equals(this.index.get(node))) {
+                    Unit unit = new Unit();
+                    String member;
+                    do {
+                        member = this.stack.pop();
+                        this.onStack.remove(member);
+                        unit.packages.add(member);
+                    } while(!member.equals(node));
+                    this.units.add(unit);
+                }
+            }
+        }
+
+        private void enter(String node) {
+            this.index.put(node,this.next);
+            this.low.put(node,this.next);
+            this.next++;
+            this.stack.push(node);
+            this.onStack.add(node);
+        }
+
+    }
+
+}
@@ -0,0 +1,366 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Records timing of build phases and their sub-steps together with
+ * counters, e.g. number of downloaded bytes or copied files. Recordings can
+ * be written as Chrome {@code trace_event} JSON, viewable in
+ * {@code chrome://tracing} or Perfetto, or as a machine-readable summary.
+ * <p>
+ * Profiler is disabled by default, in which case recording costs nothing.
+ */
+public final class Profiler {
+
+    private Profiler() {}
+
+    private static volatile boolean enabled = false;
+    private static long origin = System.nanoTime();
+    private static final List<Span> SPANS = new ArrayList<>();
+    private static final Map<String,AtomicLong> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<Long,String> THREADS = new ConcurrentHashMap<>();
+
+    /**
+     * Timed section of build.
+     */
+    public static class Span implements AutoCloseable {
+
+        final String name;
+        final String category;
+        final long tid;
+        final long start;
+        long end = -1;
+        final Map<String,Object> args = new LinkedHashMap<>();
+
+        Span(String name, String category) {
+            this.name = name;
+            this.category = category;
+            Thread thread = Thread.currentThread();
+            this.tid = thread.getId();
+            THREADS.put(this.tid,thread.getName());
+            this.start = System.nanoTime();
+        }
+
+        private Span() {
+            this.name = null;
+            this.category = null;
+            this.tid = 0;
+            this.start = 0;
+        }
+
+        /**
+         * Attach an argument to span.
+         * @param key    name of argument
+         * @param value  number or string
+         * @return       This span.
+         */
+        public Span arg(String key, Object value) {
+            if(this!=NOOP) {
+                synchronized(this.args) {
+                    this.args.put(key,value);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * End span.
+         */
+        @Override
+        public void close() {
+            if(this==NOOP || this.end>=0) {
+                return;
+            }
+            this.end = System.nanoTime();
+            synchronized(SPANS) {
+                SPANS.add(this);
+            }
+        }
+
+    }
+
+    private static final Span NOOP = new Span();
+
+    /**
+     * Enable profiler and discard previous recordings.
+     */
+    public static void start() {
+        synchronized(SPANS) {
+            SPANS.clear();
+        }
+        COUNTERS.clear();
+        THREADS.clear();
+        origin = System.nanoTime();
+        enabled = true;
+    }
+
+    /**
+     * Disable profiler.
+     */
+    public static void stop() {
+        enabled = false;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Category of top level build phases.
+     */
+    public static final String PHASE = "build";
+
+    /**
+     * Begin a top level build phase, to be ended by {@link Span#close()}.
+     * @param name  name of phase, e.g. {@code javac}
+     * @return      Span.
+     */
+    public static Span phase(String name) {
+        return begin(PHASE,name);
+    }
+
+    /**
+     * Begin a span, to be ended by {@link Span#close()}.
+     * @param category  phase the span belongs to, e.g. {@code javac}
+     * @param name      name of span
+     * @return          Span.
+     */
+    public static Span begin(String category, String name) {
+        if(!enabled) {
+            return NOOP;
+        }
+        return new Span(name,category);
+    }
+
+    /**
+     * Add to a counter.
+     * @param counter  name of counter, e.g. {@code copy.bytes}
+     * @param delta    value to add
+     */
+    public static void count(String counter, long delta) {
+        if(!enabled) {
+            return;
+        }
+        AtomicLong value = COUNTERS.get(counter);
+        if(value==null) {
+            value = COUNTERS.computeIfAbsent(counter,k -> new AtomicLong());
+        }
+        value.addAndGet(delta);
+    }
+
+    private static List<Span> spans() {
+        synchronized(SPANS) {
+            return new ArrayList<>(SPANS);
+        }
+    }
+
+    /**
+     * Write recordings as Chrome {@code trace_event} JSON.
+     * @param file  output file
+     * @throws IOException  if an I/O error occurs.
+     */
+    public static void writeTrace(File file) throws IOException {
+        Downloader.checkParentDir(file.getAbsolutePath());
+        try(Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),StandardCharsets.UTF_8))) {
+            out.write("{\"traceEvents\":[\n");
+            boolean first = true;
+            for(Map.Entry<Long,String> thread : THREADS.entrySet()) {
+                first = comma(out,first);
+                out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":"+thread.getKey()+
+                          ",\"args\":{\"name\":"+quote(thread.getValue())+"}}");
+            }
+            long last = 0;
+            for(Span span : spans()) {
+                first = comma(out,first);
+                out.write("{\"name\":"+quote(span.name)+",\"cat\":"+quote(span.category)+
+                          ",\"ph\":\"X\",\"pid\":1,\"tid\":"+span.tid+
+                          ",\"ts\":"+micros(span.start-origin)+",\"dur\":"+micros(span.end-span.start)+
+                          ",\"args\":"+object(span.args)+"}");
+                last = Math.max(last,span.end-origin);
+            }
+            for(Map.Entry<String,AtomicLong> counter : new TreeMap<>(COUNTERS).entrySet()) {
+                first = comma(out,first);
+                out.write("{\"name\":"+quote(counter.getKey())+",\"ph\":\"C\",\"pid\":1,\"ts\":"+micros(last)+
+                          ",\"args\":{\"value\":"+counter.getValue().get()+"}}");
+            }
+            out.write("\n]}\n");
+        }
+    }
+
+    /**
+     * Write a machine-readable summary of recordings: total duration and
+     * number of spans per phase and per sub-step, and all counters.
+     * @param file  output file
+     * @throws IOException  if an I/O error occurs.
+     */
+    public static void writeSummary(File file) throws IOException {
+        Downloader.checkParentDir(file.getAbsolutePath());
+        try(Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),StandardCharsets.UTF_8))) {
+            out.write(summary());
+        }
+    }
+
+    private static String summary() {
+        Map<String,long[]> phases = new TreeMap<>();
+        Map<String,long[]> steps = new TreeMap<>();
+        long wall = 0;
+        for(Span span : spans()) {
+            if(PHASE.equals(span.category)) {
+                add(phases,span.name,span.end-span.start);
+            } else {
+                add(steps,span.category+"/"+span.name,span.end-span.start);
+            }
+            wall = Math.max(wall,span.end-origin);
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"wallMs\": ").append(millis(wall)).append(",\n");
+        sb.append("  \"phases\": ").append(durations(phases)).append(",\n");
+        sb.append("  \"steps\": ").append(durations(steps)).append(",\n");
+        sb.append("  \"counters\": {");
+        boolean first = true;
+        for(Map.Entry<String,AtomicLong> counter : new TreeMap<>(COUNTERS).entrySet()) {
+            sb.append(first ? "\n" : ",\n");
+            first = false;
+            sb.append("    ").append(quote(counter.getKey())).append(": ").append(counter.getValue().get());
+        }
+        sb.append(first ? "}\n}\n" : "\n  }\n}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Print a human readable table of phases and counters.
+     */
+    public static void print() {
+        Map<String,long[]> steps = new TreeMap<>();
+        for(Span span : spans()) {
+            add(steps,span.category+"/"+span.name,span.end-span.start);
+        }
+        System.out.println("Profile: ");
+        for(Map.Entry<String,long[]> step : steps.entrySet()) {
+            System.out.printf("  %-40s %8.1fms %6dx\n", step.getKey(), step.getValue()[0]/1e6, step.getValue()[1]);
+        }
+        for(Map.Entry<String,AtomicLong> counter : new TreeMap<>(COUNTERS).entrySet()) {
+            System.out.printf("  %-40s %10d\n", counter.getKey(), counter.getValue().get());
+        }
+    }
+
+    private static void add(Map<String,long[]> map, String key, long nanos) {
+        long[] value = map.get(key);
+        if(value==null) {
+            value = new long[2];
+            map.put(key,value);
+        }
+        value[0] += nanos;
+        value[1]++;
+    }
+
+    private static String durations(Map<String,long[]> map) {
+        StringBuilder sb = new StringBuilder("{");
+        boolean first = true;
+        for(Map.Entry<String,long[]> e : map.entrySet()) {
+            sb.append(first ? "\n" : ",\n");
+            first = false;
+            sb.append("    ").append(quote(e.getKey())).append(": {\"totalMs\": ").append(millis(e.getValue()[0]))
+              .append(", \"count\": ").append(e.getValue()[1]).append("}");
+        }
+        sb.append(first ? "}" : "\n  }");
+        return sb.toString();
+    }
+
+    private static boolean comma(Writer out, boolean first) throws IOException {
+        if(!first) {
+            out.write(",\n");
+        }
+        return false;
+    }
+
+    private static String object(Map<String,Object> args) {
+        StringBuilder sb = new StringBuilder("{");
+        synchronized(args) {
+            boolean first = true;
+            for(Map.Entry<String,Object> e : args.entrySet()) {
+                if(!first) {
+                    sb.append(',');
+                }
+                first = false;
+                sb.append(quote(e.getKey())).append(':');
+                if(e.getValue() instanceof Number) {
+                    sb.append(e.getValue());
+                } else {
+                    sb.append(quote(String.valueOf(e.getValue())));
+                }
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    private static String micros(long nanos) {
+        return String.valueOf(nanos/1000);
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT,"%.3f",nanos/1e6);
+    }
+
+    static String quote(String str) {
+        StringBuilder sb = new StringBuilder("\"");
+        for(int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            switch(c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if(c<0x20) {
+                        sb.append(String.format("\\u%04x",(int)c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+}
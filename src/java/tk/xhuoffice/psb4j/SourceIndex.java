@@ -0,0 +1,516 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Persistent fingerprint index of compiled sources, stored as a compact
+ * binary file in the build directory. It remembers size, modification time
+ * and content hash of each source, the class files it produced and the
+ * project classes those reference, so that only changed sources and their
+ * dependents need to be recompiled.
+ */
+public class SourceIndex {
+
+    private static final int MAGIC = 0x50534249; // PSBI
+    private static final int VERSION = 1;
+
+    /**
+     * Source entry in index.
+     */
+    static class Entry {
+        long size;
+        long mtime;
+        byte[] hash;
+        /** internal names of classes produced by this source */
+        String[] classes = new String[0];
+        /** internal names of project classes referenced by this source */
+        String[] deps = new String[0];
+    }
+
+    private final File file;
+    private final File classesDir;
+    private final String fingerprint;
+    private final Map<String,Entry> entries = new LinkedHashMap<>();
+
+    private static final Map<File,SourceIndex> LOADED = new HashMap<>();
+    private long savedLength = -1;
+    private long savedTime = -1;
+
+    private SourceIndex(File file, File classesDir, String fingerprint) {
+        this.file = file;
+        this.classesDir = classesDir;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Load index from file. An empty index is returned if the file does not
+     * exist, is corrupt or was written with a different fingerprint.
+     * @param file         index file
+     * @param classesDir   directory of class files
+     * @param fingerprint  compiler options which the index is valid for
+     * @return             Loaded index.
+     */
+    public static SourceIndex load(File file, File classesDir, String fingerprint) {
+        // index saved by this JVM, e.g. in daemon
+        SourceIndex cached;
+        synchronized(LOADED) {
+            cached = LOADED.get(file.getAbsoluteFile());
+        }
+        if(cached!=null && cached.fingerprint.equals(fingerprint) && cached.classesDir.equals(classesDir)
+           && file.length()==cached.savedLength && file.lastModified()==cached.savedTime) {
+            return cached;
+        }
+        SourceIndex index = new SourceIndex(file,classesDir,fingerprint);
+        if(!file.isFile()) {
+            return index;
+        }
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if(in.readInt()!=MAGIC || in.readInt()!=VERSION) {
+                return index;
+            }
+            if(!in.readUTF().equals(fingerprint)) {
+                System.out.println("编译参数已改变, 将完整编译");
+                return index;
+            }
+            int count = in.readInt();
+            for(int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                Entry entry = new Entry();
+                entry.size = in.readLong();
+                entry.mtime = in.readLong();
+                entry.hash = new byte[in.readUnsignedByte()];
+                in.readFully(entry.hash);
+                entry.classes = readStrings(in);
+                entry.deps = readStrings(in);
+                index.entries.put(path,entry);
+            }
+        } catch(EOFException e) {
+            index.entries.clear();
+        } catch(IOException e) {
+            e.printStackTrace();
+            index.entries.clear();
+        }
+        return index;
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        String[] strs = new String[in.readInt()];
+        for(int i = 0; i < strs.length; i++) {
+            strs[i] = in.readUTF();
+        }
+        return strs;
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strs) throws IOException {
+        out.writeInt(strs.length);
+        for(String str : strs) {
+            out.writeUTF(str);
+        }
+    }
+
+    /**
+     * Save index to file.
+     */
+    public void save() {
+        Downloader.checkParentDir(this.file.getAbsolutePath());
+        File tmp = new File(this.file.getPath()+".tmp");
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(this.fingerprint);
+            out.writeInt(this.entries.size());
+            for(Map.Entry<String,Entry> e : this.entries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeByte(entry.hash.length);
+                out.write(entry.hash);
+                writeStrings(out,entry.classes);
+                writeStrings(out,entry.deps);
+            }
+        } catch(IOException e) {
+            e.printStackTrace();
+            tmp.delete();
+            return;
+        }
+        this.file.delete();
+        if(!tmp.renameTo(this.file)) {
+            System.err.println("Could not write "+this.file.getPath());
+            return;
+        }
+        this.savedLength = this.file.length();
+        this.savedTime = this.file.lastModified();
+        synchronized(LOADED) {
+            LOADED.put(this.file.getAbsoluteFile(),this);
+        }
+    }
+
+    /**
+     * Compare sources with index. Class files of removed sources are deleted,
+     * and so are the class files of sources which are going to be recompiled.
+     * @param sources  all current sources
+     * @return         Paths of sources which need to be compiled.
+     */
+    public List<String> update(List<SourceScanner.Source> sources) {
+        Set<String> current = new HashSet<>();
+        for(SourceScanner.Source source : sources) {
+            current.add(source.path);
+        }
+        Set<String> changed = new LinkedHashSet<>();
+        Set<String> dirtyClasses = new HashSet<>();
+        // removed sources
+        List<String> removed = new ArrayList<>();
+        for(Map.Entry<String,Entry> e : this.entries.entrySet()) {
+            if(!current.contains(e.getKey())) {
+                removed.add(e.getKey());
+            }
+        }
+        for(String path : removed) {
+            Entry entry = this.entries.remove(path);
+            dirtyClasses.addAll(Arrays.asList(entry.classes));
+            deleteClasses(entry);
+        }
+        // new & modified sources
+        for(SourceScanner.Source source : sources) {
+            String path = source.path;
+            Entry entry = this.entries.get(path);
+            if(entry!=null && entry.size==source.size && entry.mtime==source.mtime) {
+                continue;
+            }
+            byte[] hash = hash(new File(path));
+            if(entry!=null && Arrays.equals(entry.hash,hash)) {
+                // touched only
+                entry.size = source.size;
+                entry.mtime = source.mtime;
+                continue;
+            }
+            changed.add(path);
+            if(entry!=null) {
+                dirtyClasses.addAll(Arrays.asList(entry.classes));
+            }
+        }
+        // dependents, transitively: a class only naming a subtype in its
+        // constant pool still breaks when a member of the supertype changes
+        Set<String> compile = new LinkedHashSet<>(changed);
+        boolean marked = !dirtyClasses.isEmpty();
+        while(marked) {
+            marked = false;
+            for(Map.Entry<String,Entry> e : this.entries.entrySet()) {
+                if(compile.contains(e.getKey())) {
+                    continue;
+                }
+                for(String dep : e.getValue().deps) {
+                    if(dirtyClasses.contains(dep)) {
+                        compile.add(e.getKey());
+                        dirtyClasses.addAll(Arrays.asList(e.getValue().classes));
+                        marked = true;
+                        break;
+                    }
+                }
+            }
+        }
+        // clean outputs of sources to be compiled
+        for(String path : compile) {
+            Entry entry = this.entries.remove(path);
+            if(entry!=null) {
+                deleteClasses(entry);
+            }
+        }
+        if(!this.entries.isEmpty() || !removed.isEmpty()) {
+            System.out.printf("增量编译: %d 个源文件已改变, %d 个依赖源文件, %d 个源文件已移除\n",
+                changed.size(), compile.size()-changed.size(), removed.size());
+        }
+        return new ArrayList<>(compile);
+    }
+
+    /**
+     * Record class files produced by compiled sources.
+     * @param sources     paths of compiled sources
+     * @param sourcepath  source root of the sources
+     */
+    public void record(List<String> sources, File sourcepath) {
+        String root;
+        try {
+            root = sourcepath.getCanonicalPath();
+        } catch(IOException e) {
+            root = sourcepath.getAbsolutePath();
+        }
+        // read class files per package directory only once
+        Map<File,Map<String,List<ClassInfo>>> dirs = new HashMap<>();
+        for(String path : sources) {
+            File src = new File(path);
+            String rel = src.getAbsolutePath();
+            if(!rel.startsWith(root)) {
+                continue;
+            }
+            rel = rel.substring(root.length()).replace(File.separatorChar,'/');
+            while(rel.startsWith("/")) {
+                rel = rel.substring(1);
+            }
+            int slash = rel.lastIndexOf('/');
+            String pkg = slash<0 ? "" : rel.substring(0,slash);
+            File dir = pkg.isEmpty() ? this.classesDir : new File(this.classesDir,pkg);
+            Map<String,List<ClassInfo>> bySource = dirs.get(dir);
+            if(bySource==null) {
+                bySource = readClassDir(dir);
+                dirs.put(dir,bySource);
+            }
+            List<ClassInfo> infos = bySource.get(src.getName());
+            if(infos==null) {
+                // e.g. package-info.java
+                infos = new ArrayList<>();
+            }
+            Entry entry = new Entry();
+            entry.size = src.length();
+            entry.mtime = src.lastModified();
+            entry.hash = hash(src);
+            Set<String> classes = new LinkedHashSet<>();
+            Set<String> deps = new LinkedHashSet<>();
+            for(ClassInfo info : infos) {
+                classes.add(info.name);
+                deps.addAll(info.refs);
+            }
+            entry.classes = classes.toArray(new String[0]);
+            entry.deps = deps.toArray(new String[0]);
+            this.entries.put(path,entry);
+        }
+        // keep project classes only in dependencies
+        Set<String> known = new HashSet<>();
+        for(Entry entry : this.entries.values()) {
+            known.addAll(Arrays.asList(entry.classes));
+        }
+        for(Entry entry : this.entries.values()) {
+            List<String> deps = new ArrayList<>();
+            for(String dep : entry.deps) {
+                if(known.contains(dep) && !Arrays.asList(entry.classes).contains(dep)) {
+                    deps.add(dep);
+                }
+            }
+            entry.deps = deps.toArray(new String[0]);
+        }
+    }
+
+    private void deleteClasses(Entry entry) {
+        for(String name : entry.classes) {
+            new File(this.classesDir,name+".class").delete();
+        }
+    }
+
+    /**
+     * Calculate SHA-256 of file content.
+     * @param file  file
+     * @return      Digest, or empty array if file could not be read.
+     */
+    static byte[] hash(File file) {
+        try(InputStream in = new FileInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            int len;
+            while((len=in.read(buffer))!=-1) {
+                md.update(buffer,0,len);
+            }
+            return md.digest();
+        } catch(IOException e) {
+            e.printStackTrace();
+            return new byte[0];
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Information read from a class file.
+     */
+    static class ClassInfo {
+        String name;
+        String sourceFile;
+        Set<String> refs = new HashSet<>();
+    }
+
+    private Map<String,List<ClassInfo>> readClassDir(File dir) {
+        Map<String,List<ClassInfo>> bySource = new HashMap<>();
+        File[] ls = dir.listFiles();
+        if(ls==null) {
+            return bySource;
+        }
+        for(File file : ls) {
+            if(!file.isFile() || !file.getName().endsWith(".class")) {
+                continue;
+            }
+            try {
+                ClassInfo info = readClass(file);
+                if(info.sourceFile==null) {
+                    continue;
+                }
+                List<ClassInfo> infos = bySource.get(info.sourceFile);
+                if(infos==null) {
+                    infos = new ArrayList<>();
+                    bySource.put(info.sourceFile,infos);
+                }
+                infos.add(info);
+            } catch(IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return bySource;
+    }
+
+    /**
+     * Read name, {@code SourceFile} attribute and referenced classes from class file.
+     * @param file  class file
+     * @return      Class information.
+     * @throws IOException  if an I/O error occurs or file is not a class file.
+     */
+    static ClassInfo readClass(File file) throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return readClass(in);
+        }
+    }
+
+    static ClassInfo readClass(DataInputStream in) throws IOException {
+        if(in.readInt()!=0xCAFEBABE) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort(); // minor
+        in.readUnsignedShort(); // major
+        // constant pool
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        int[] classIndex = new int[count];
+        for(int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch(tag) {
+                case 1: // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7: // Class
+                    classIndex[i] = in.readUnsignedShort();
+                    break;
+                case 8: case 16: case 19: case 20: // String, MethodType, Module, Package
+                    in.skipBytes(2);
+                    break;
+                case 15: // MethodHandle
+                    in.skipBytes(3);
+                    break;
+                case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+                    in.skipBytes(4);
+                    break;
+                case 5: case 6: // Long, Double
+                    in.skipBytes(8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag "+tag);
+            }
+        }
+        ClassInfo info = new ClassInfo();
+        in.readUnsignedShort(); // access
+        info.name = utf8[classIndex[in.readUnsignedShort()]];
+        in.readUnsignedShort(); // super
+        in.skipBytes(in.readUnsignedShort()*2); // interfaces
+        for(int m = 0; m < 2; m++) { // fields & methods
+            int members = in.readUnsignedShort();
+            for(int i = 0; i < members; i++) {
+                in.skipBytes(6);
+                skipAttributes(in);
+            }
+        }
+        int attrs = in.readUnsignedShort();
+        for(int i = 0; i < attrs; i++) {
+            String name = utf8[in.readUnsignedShort()];
+            int len = in.readInt();
+            if("SourceFile".equals(name)) {
+                info.sourceFile = utf8[in.readUnsignedShort()];
+                in.skipBytes(len-2);
+            } else {
+                in.skipBytes(len);
+            }
+        }
+        // references
+        for(int i = 1; i < count; i++) {
+            if(classIndex[i]!=0) {
+                addRefs(info.refs,utf8[classIndex[i]]);
+            } else if(utf8[i]!=null && utf8[i].indexOf(';')>0) {
+                addRefs(info.refs,utf8[i]);
+            }
+        }
+        return info;
+    }
+
+    private static void skipAttributes(DataInputStream in) throws IOException {
+        int attrs = in.readUnsignedShort();
+        for(int i = 0; i < attrs; i++) {
+            in.skipBytes(2);
+            in.skipBytes(in.readInt());
+        }
+    }
+
+    /**
+     * Collect class names from an internal name or a descriptor/signature.
+     */
+    private static void addRefs(Set<String> refs, String str) {
+        if(str.indexOf(';')<0) {
+            refs.add(str);
+            return;
+        }
+        int i = 0;
+        while((i=str.indexOf('L',i))>=0) {
+            int end = i+1;
+            while(end<str.length() && ";<.:".indexOf(str.charAt(end))<0) {
+                end++;
+            }
+            if(end>i+1) {
+                refs.add(str.substring(i+1,end));
+            }
+            i = end;
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * Discovers compilation units under a source root. Directories are walked
+ * in parallel on a {@link ForkJoinPool}, and the attributes of every file
+ * are read in the same pass so that later stages need not stat it again.
+ */
+public class SourceScanner {
+
+    /**
+     * Source file found by scanner.
+     */
+    public static class Source {
+        public final String path;
+        public final long size;
+        public final long mtime;
+
+        Source(String path, long size, long mtime) {
+            this.path = path;
+            this.size = size;
+            this.mtime = mtime;
+        }
+    }
+
+    private final Path root;
+    private final List<PathMatcher> includes = new ArrayList<>();
+    private final List<PathMatcher> excludes = new ArrayList<>();
+
+    public SourceScanner(File root) {
+        Path path;
+        try {
+            path = root.toPath().toRealPath();
+        } catch(IOException e) {
+            path = root.getAbsoluteFile().toPath().normalize();
+        }
+        this.root = path;
+    }
+
+    /**
+     * Set glob patterns of sources to be included, relative to source root,
+     * e.g. {@code tk/xhuoffice/**}. All sources are included if none is set.
+     * @param patterns  glob patterns
+     */
+    public void setIncludes(String[] patterns) {
+        this.includes.clear();
+        for(String pattern : patterns) {
+            this.includes.add(FileSystems.getDefault().getPathMatcher("glob:"+pattern));
+        }
+    }
+
+    /**
+     * Set glob patterns of sources to be excluded, relative to source root.
+     * @param patterns  glob patterns
+     */
+    public void setExcludes(String[] patterns) {
+        this.excludes.clear();
+        for(String pattern : patterns) {
+            this.excludes.add(FileSystems.getDefault().getPathMatcher("glob:"+pattern));
+        }
+    }
+
+    /**
+     * Scan source root for {@code .java} files.
+     * @return Sources sorted by path.
+     */
+    public List<Source> scan() {
+        if(!Files.isDirectory(this.root)) {
+            return new ArrayList<>();
+        }
+        List<Source> sources = ForkJoinPool.commonPool().invoke(new ScanTask(this.root));
+        Collections.sort(sources,(a,b) -> a.path.compareTo(b.path));
+        return sources;
+    }
+
+    private boolean accept(Path file) {
+        if(!file.getFileName().toString().endsWith(".java")) {
+            return false;
+        }
+        Path rel = this.root.relativize(file);
+        for(PathMatcher exclude : this.excludes) {
+            if(exclude.matches(rel)) {
+                return false;
+            }
+        }
+        if(this.includes.isEmpty()) {
+            return true;
+        }
+        for(PathMatcher include : this.includes) {
+            if(include.matches(rel)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private class ScanTask extends RecursiveTask<List<Source>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+
+        ScanTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected List<Source> compute() {
+            List<Source> sources = new ArrayList<>();
+            List<ScanTask> subtasks = new ArrayList<>();
+            try(DirectoryStream<Path> ls = Files.newDirectoryStream(this.dir)) {
+                for(Path child : ls) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(child,BasicFileAttributes.class);
+                    } catch(IOException e) {
+                        e.printStackTrace();
+                        continue;
+                    }
+                    if(attrs.isDirectory()) {
+                        ScanTask task = new ScanTask(child);
+                        task.fork();
+                        subtasks.add(task);
+                    } else if(attrs.isRegularFile() && accept(child)) {
+                        sources.add(new Source(child.toString(),attrs.size(),attrs.lastModifiedTime().toMillis()));
+                    }
+                }
+            } catch(IOException e) {
+                e.printStackTrace();
+            }
+            for(ScanTask task : subtasks) {
+                sources.addAll(task.join());
+            }
+            return sources;
+        }
+
+    }
+
+}
@@ -0,0 +1,334 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Runs compiled test classes in a pool of forked JVMs, see
+ * {@link TestWorker}. Classes are assigned to shards before any runs,
+ * longest first to the shard with least work, by their durations on
+ * previous runs, so that shards finish at about the same time.
+ */
+public class TestRunner {
+
+    /**
+     * Assumed duration of a class never run before, if no class was.
+     */
+    static final long DEFAULT_MILLIS = 1000;
+
+    private final File classes;
+    private final List<String> classpath;
+    private final File timings;
+    private final int workers;
+
+    /**
+     * @param classes    directory of compiled test classes
+     * @param classpath  classpath of tests, without test classes
+     * @param timings    file recording durations of classes
+     * @param workers    max number of forked JVMs
+     */
+    public TestRunner(File classes, List<String> classpath, File timings, int workers) {
+        this.classes = classes;
+        this.classpath = classpath;
+        this.timings = timings;
+        this.workers = Math.max(1,workers);
+    }
+
+    /**
+     * Find test classes, named as JUnit runners of Maven and Gradle expect
+     * by default: {@code Test*}, {@code *Test}, {@code *Tests} or
+     * {@code *TestCase}.
+     * @return Names of classes, sorted.
+     */
+    List<String> discover() {
+        List<String> found = new ArrayList<>();
+        discover(this.classes,"",found);
+        Collections.sort(found);
+        return found;
+    }
+
+    private static void discover(File dir, String pkg, List<String> found) {
+        File[] ls = dir.listFiles();
+        if(ls==null) {
+            return;
+        }
+        for(File file : ls) {
+            String name = file.getName();
+            if(file.isDirectory()) {
+                if(!name.equals(Builder.INDEX_DIR)) {
+                    discover(file,pkg+name+".",found);
+                }
+            } else if(name.endsWith(".class") && name.indexOf('$')<0) {
+                String simple = name.substring(0,name.length()-6);
+                if(simple.startsWith("Test") || simple.endsWith("Test") || simple.endsWith("Tests") || simple.endsWith("TestCase")) {
+                    found.add(pkg+simple);
+                }
+            }
+        }
+    }
+
+    /**
+     * Shard of test classes run by one JVM.
+     */
+    static class Shard {
+        final List<String> classes = new ArrayList<>();
+        long estimate = 0;
+        // filled by run
+        final List<String[]> results = new ArrayList<>();
+        long millis;
+        int exitCode;
+    }
+
+    /**
+     * Assign classes to shards, longest first to the shard with least
+     * estimated work.
+     * @param names     test classes
+     * @param recorded  durations of previous runs
+     * @param count     number of shards
+     * @return          Non-empty shards.
+     */
+    static List<Shard> shard(List<String> names, Properties recorded, int count) {
+        long known = 0;
+        int knownCount = 0;
+        for(String name : names) {
+            String millis = recorded.getProperty(name);
+            if(millis!=null) {
+                known += Long.parseLong(millis);
+                knownCount++;
+            }
+        }
+        long unknown = knownCount==0 ? DEFAULT_MILLIS : known/knownCount;
+        List<Map.Entry<String,Long>> estimates = new ArrayList<>();
+        for(String name : names) {
+            String millis = recorded.getProperty(name);
+            estimates.add(new AbstractMap.SimpleEntry<>(name,millis==null ? unknown : Long.parseLong(millis)));
+        }
+        Collections.sort(estimates,(a,b) -> Long.compare(b.getValue(),a.getValue()));
+        List<Shard> shards = new ArrayList<>();
+        for(int i = 0; i < Math.min(count,names.size()); i++) {
+            shards.add(new Shard());
+        }
+        for(Map.Entry<String,Long> estimate : estimates) {
+            Shard least = shards.get(0);
+            for(Shard shard : shards) {
+                if(shard.estimate<least.estimate) {
+                    least = shard;
+                }
+            }
+            least.classes.add(estimate.getKey());
+            least.estimate += estimate.getValue();
+        }
+        return shards;
+    }
+
+    /**
+     * Run all test classes and record their durations.
+     * @return {@code true} if all tests passed.
+     */
+    public boolean run() {
+        List<String> names = discover();
+        Main.printDividingLine();
+        if(names.isEmpty()) {
+            System.out.println("No test classes found");
+            return true;
+        }
+        Properties recorded = load(this.timings);
+        List<Shard> shards = shard(names,recorded,this.workers);
+        System.out.printf("Tests: %d classes in %d workers\n", names.size(), shards.size());
+        long start = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(shards.size());
+        List<Future<?>> futures = new ArrayList<>();
+        for(int i = 0; i < shards.size(); i++) {
+            final int index = i;
+            futures.add(pool.submit(() -> {
+                runShard(index,shards.get(index));
+                return null;
+            }));
+        }
+        pool.shutdown();
+        boolean ok = true;
+        for(Future<?> future : futures) {
+            try {
+                future.get();
+            } catch(ExecutionException e) {
+                e.getCause().printStackTrace();
+                ok = false;
+            } catch(InterruptedException e) {
+                pool.shutdownNow();
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        long wall = System.currentTimeMillis()-start;
+        // results
+        Properties measured = new Properties();
+        int run = 0, failures = 0, ignored = 0, classes = 0, skipped = 0;
+        long work = 0;
+        for(Shard shard : shards) {
+            for(String[] result : shard.results) {
+                measured.setProperty(result[1],result[2]);
+                work += Long.parseLong(result[2]);
+                if(result[0].equals(TestWorker.SKIPPED)) {
+                    skipped++;
+                    continue;
+                }
+                run += Integer.parseInt(result[3]);
+                failures += Integer.parseInt(result[4]);
+                ignored += Integer.parseInt(result[5]);
+                classes++;
+            }
+            if(shard.exitCode!=0) {
+                ok = false;
+            }
+        }
+        // keep durations of classes whose worker died, drop those of removed classes
+        for(String name : names) {
+            if(measured.getProperty(name)==null && recorded.getProperty(name)!=null) {
+                measured.setProperty(name,recorded.getProperty(name));
+            }
+        }
+        save(this.timings,measured);
+        Profiler.count("test.classes",classes);
+        Profiler.count("test.run",run);
+        Profiler.count("test.failures",failures);
+        Main.printDividingLine();
+        for(int i = 0; i < shards.size(); i++) {
+            Shard shard = shards.get(i);
+            System.out.printf("Worker %d: %d classes, estimated %dms, took %dms\n",
+                i, shard.classes.size(), shard.estimate, shard.millis);
+        }
+        System.out.printf("Tests run: %d, Failures: %d, Ignored: %d, Classes: %d/%d (%d without tests)\n",
+            run, failures, ignored, classes, names.size()-skipped, skipped);
+        System.out.printf("Test work %dms in %dms on %d workers\n", work, wall, shards.size());
+        return ok && failures==0 && classes+skipped==names.size();
+    }
+
+    private void runShard(int index, Shard shard) throws IOException, InterruptedException {
+        Profiler.Span span = Profiler.begin("test","shard");
+        try {
+            span.arg("worker",index).arg("classes",shard.classes.size()).arg("estimateMs",shard.estimate);
+            File list = new File(this.classes,Builder.INDEX_DIR+"/shard-"+index+".list");
+            Downloader.checkParentDir(list.getAbsolutePath());
+            Files.write(list.toPath(),shard.classes,StandardCharsets.UTF_8);
+            StringBuilder cp = new StringBuilder(workerPath());
+            cp.append(File.pathSeparatorChar).append(this.classes.getAbsolutePath());
+            for(String path : this.classpath) {
+                cp.append(File.pathSeparatorChar).append(path);
+            }
+            long start = System.currentTimeMillis();
+            Process process = new ProcessBuilder(
+                System.getProperty("java.home")+File.separator+"bin"+File.separator+"java",
+                "-cp",cp.toString(),TestWorker.class.getName(),list.getAbsolutePath()
+            ).redirectErrorStream(true).start();
+            process.getOutputStream().close();
+            // results are collected, everything else is shown as it comes
+            try(BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(),Charset.defaultCharset()))) {
+                String line;
+                while((line=in.readLine())!=null) {
+                    String[] result = line.split(" ");
+                    if((result.length==6 && result[0].equals(TestWorker.RESULT))
+                       || (result.length==3 && result[0].equals(TestWorker.SKIPPED))) {
+                        shard.results.add(result);
+                    } else {
+                        System.out.println("[worker "+index+"] "+line);
+                    }
+                }
+            }
+            shard.exitCode = process.waitFor();
+            shard.millis = System.currentTimeMillis()-start;
+            span.arg("exitCode",shard.exitCode);
+        } finally {
+            span.close();
+        }
+    }
+
+    /**
+     * Get classpath entry containing psb4j, where {@link TestWorker} is.
+     */
+    private static String workerPath() throws IOException {
+        try {
+            return new File(TestWorker.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+        } catch(URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static Properties load(File file) {
+        Properties properties = new Properties();
+        if(file.isFile()) {
+            try(InputStream in = new FileInputStream(file)) {
+                properties.load(in);
+            } catch(IOException | IllegalArgumentException e) {
+                // durations are only estimates, start over
+                properties.clear();
+            }
+        }
+        return properties;
+    }
+
+    private static void save(File file, Properties properties) {
+        Downloader.checkParentDir(file.getAbsolutePath());
+        File tmp = new File(file.getPath()+".tmp");
+        try {
+            // sorted for stable diffs, class names need no escaping
+            try(Writer out = Files.newBufferedWriter(tmp.toPath(),StandardCharsets.ISO_8859_1)) {
+                out.write("# psb4j test durations in milliseconds\n");
+                for(String name : new TreeSet<>(properties.stringPropertyNames())) {
+                    out.write(name+"="+properties.getProperty(name)+"\n");
+                }
+            }
+            Files.move(tmp.toPath(),file.toPath(),StandardCopyOption.REPLACE_EXISTING);
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+}
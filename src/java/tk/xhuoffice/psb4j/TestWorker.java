@@ -0,0 +1,121 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+
+/**
+ * Runs a shard of test classes in a JVM forked by {@link TestRunner}.
+ * Classes are run one by one with JUnit 4, found on classpath through
+ * reflection as psb4j itself does not depend on it, and one result line
+ * per class is printed for the runner to read:
+ * <pre>
+ * PSB4J-TEST &lt;class&gt; &lt;millis&gt; &lt;run&gt; &lt;failures&gt; &lt;ignored&gt;
+ * PSB4J-SKIP &lt;class&gt; &lt;millis&gt;
+ * </pre>
+ * Classes which JUnit would find nothing to run in, e.g. helpers named
+ * like tests or base classes without {@code @Test} methods, are skipped as
+ * Surefire does.
+ */
+public class TestWorker {
+
+    static final String RESULT = "PSB4J-TEST";
+    static final String SKIPPED = "PSB4J-SKIP";
+
+    /**
+     * @param args  file listing names of test classes, one per line
+     */
+    public static void main(String[] args) throws IOException {
+        List<String> classes = Files.readAllLines(Paths.get(args[0]),StandardCharsets.UTF_8);
+        Object core;
+        Method run;
+        Class<? extends Annotation> testAnnotation;
+        Class<? extends Annotation> runWith;
+        Class<?> junit3;
+        try {
+            Class<?> junit = Class.forName("org.junit.runner.JUnitCore");
+            core = junit.getConstructor().newInstance();
+            run = junit.getMethod("run",Class[].class);
+            testAnnotation = Class.forName("org.junit.Test").asSubclass(Annotation.class);
+            runWith = Class.forName("org.junit.runner.RunWith").asSubclass(Annotation.class);
+            junit3 = Class.forName("junit.framework.Test");
+        } catch(ReflectiveOperationException e) {
+            System.err.println("JUnit 4 not found on classpath: "+e);
+            System.exit(2);
+            return;
+        }
+        int failed = 0;
+        for(String name : classes) {
+            if(name.trim().isEmpty()) {
+                continue;
+            }
+            long start = System.nanoTime();
+            int runs = 0, failures = 0, ignored = 0;
+            try {
+                Class<?> test = Class.forName(name,false,TestWorker.class.getClassLoader());
+                if(test.isInterface() || Modifier.isAbstract(test.getModifiers())
+                   || !(test.isAnnotationPresent(runWith) || junit3.isAssignableFrom(test) || hasTest(test,testAnnotation))) {
+                    System.out.printf("%s %s %d\n", SKIPPED, name, (System.nanoTime()-start)/1000000);
+                    continue;
+                }
+                Object result = run.invoke(core,(Object)new Class<?>[]{test});
+                runs = (Integer)result.getClass().getMethod("getRunCount").invoke(result);
+                failures = (Integer)result.getClass().getMethod("getFailureCount").invoke(result);
+                ignored = (Integer)result.getClass().getMethod("getIgnoreCount").invoke(result);
+                for(Object failure : (List<?>)result.getClass().getMethod("getFailures").invoke(result)) {
+                    System.out.println("FAILED "+failure.getClass().getMethod("getTestHeader").invoke(failure));
+                    System.out.print(failure.getClass().getMethod("getTrace").invoke(failure));
+                }
+            } catch(ReflectiveOperationException | LinkageError e) {
+                System.out.println("FAILED "+name);
+                e.printStackTrace(System.out);
+                failures = 1;
+            }
+            failed += failures;
+            System.out.printf("%s %s %d %d %d %d\n", RESULT, name, (System.nanoTime()-start)/1000000, runs, failures, ignored);
+        }
+        System.out.flush();
+        System.exit(failed==0 ? 0 : 1);
+    }
+
+    private static boolean hasTest(Class<?> test, Class<? extends Annotation> annotation) {
+        for(Method method : test.getMethods()) {
+            if(method.isAnnotationPresent(annotation)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2024 SessionHu
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+
+
+package tk.xhuoffice.psb4j;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Watches directory trees for changes with a {@link WatchService} and
+ * reports which kinds of build inputs changed, after events have settled.
+ */
+public class Watcher implements AutoCloseable {
+
+    /**
+     * Kind of build input a directory contains.
+     */
+    public enum Kind {
+        SOURCES, RESOURCES, LIBRARIES
+    }
+
+    /**
+     * Time without events before changes are reported, in milliseconds.
+     */
+    public static final long DEBOUNCE = 200L;
+
+    private final WatchService service;
+    private final Map<WatchKey,Kind> kinds = new HashMap<>();
+    private final Map<WatchKey,Path> dirs = new HashMap<>();
+
+    public Watcher() throws IOException {
+        this.service = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Watch directory and all its subdirectories. Directories which do not
+     * exist are ignored.
+     * @param kind  kind of build input in directory
+     * @param path  path of directory
+     * @throws IOException  if an I/O error occurs.
+     */
+    public void register(Kind kind, String path) throws IOException {
+        Path dir = Paths.get(path);
+        if(Files.isDirectory(dir)) {
+            registerTree(kind,dir);
+        }
+    }
+
+    private void registerTree(Kind kind, Path root) throws IOException {
+        Files.walkFileTree(root,new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(service,StandardWatchEventKinds.ENTRY_CREATE,
+                                                    StandardWatchEventKinds.ENTRY_DELETE,
+                                                    StandardWatchEventKinds.ENTRY_MODIFY);
+                kinds.put(key,kind);
+                dirs.put(key,dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Wait for changes.
+     * @return Kinds of build inputs which changed.
+     * @throws InterruptedException  if interrupted while waiting.
+     */
+    public Set<Kind> poll() throws InterruptedException {
+        Set<Kind> changed = EnumSet.noneOf(Kind.class);
+        WatchKey key = this.service.take();
+        while(key!=null) {
+            handle(key,changed);
+            key = this.service.poll(DEBOUNCE,TimeUnit.MILLISECONDS);
+        }
+        return changed;
+    }
+
+    private void handle(WatchKey key, Set<Kind> changed) {
+        Kind kind = this.kinds.get(key);
+        Path dir = this.dirs.get(key);
+        for(WatchEvent<?> event : key.pollEvents()) {
+            changed.add(kind);
+            if(event.kind()==StandardWatchEventKinds.ENTRY_CREATE) {
+                Path child = dir.resolve((Path)event.context());
+                if(Files.isDirectory(child)) {
+                    try {
+                        registerTree(kind,child);
+                    } catch(IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+        if(!key.reset()) {
+            // directory removed
+            this.kinds.remove(key);
+            this.dirs.remove(key);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.service.close();
+    }
+
+}